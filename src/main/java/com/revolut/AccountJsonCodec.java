@@ -0,0 +1,370 @@
+package com.revolut;
+
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Hand-written JSON encoding of {@link Account} that writes straight into the output stream, without reflection or
+ * intermediate strings.
+ * <p/>
+ * An account is encoded as <code>{"id":1,"money":0.0,"ownerId":2}</code>, the same shape JSON-B produces, so both
+ * encodings can read each other. Decoding accepts any whitespace and key order and skips unknown scalar fields.
+ */
+class AccountJsonCodec {
+    private static final byte[] ID_PREFIX = "{\"id\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MONEY_PREFIX = ",\"money\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OWNER_ID_PREFIX = ",\"ownerId\":".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_OWNER_ID = "ownerId";
+    private static final String FIELD_MONEY = "money";
+
+    /**
+     * Magnitude from which {@link Double#toString} (and so JSON-B) switches to E-notation. Integral money below it is
+     * written with the fast integer path, which produces the same text.
+     */
+    private static final double MAX_INTEGRAL_MONEY = 1e7;
+
+    private static final int BUFFER_SIZE = 8192;
+    /** Upper bound on the encoded size of a single account, so that a buffer flush is never needed mid-account. */
+    private static final int MAX_ACCOUNT_SIZE = 128;
+
+    private AccountJsonCodec() {
+    }
+
+    /** Writes <code>account</code> as a JSON object to <code>out</code>. */
+    static void writeAccount(Account account, OutputStream out) throws IOException {
+        JsonOutput output = new JsonOutput(out, MAX_ACCOUNT_SIZE);
+        output.writeAccount(account);
+        output.flush();
+    }
+
+    /** Writes <code>accounts</code> as a JSON array to <code>out</code>. */
+    static void writeAccounts(List<Account> accounts, OutputStream out) throws IOException {
+        JsonOutput output = new JsonOutput(out, BUFFER_SIZE);
+        output.writeByte('[');
+        for (int i = 0; i < accounts.size(); i++) {
+            if (i > 0) {
+                output.writeByte(',');
+            }
+            output.writeAccount(accounts.get(i));
+        }
+        output.writeByte(']');
+        output.flush();
+    }
+
+    /**
+     * Reads a JSON object from <code>in</code> into an {@link Account}.
+     *
+     * @throws IOException if the input is not a well-formed account.
+     */
+    static Account readAccount(InputStream in) throws IOException {
+        JsonInput input = new JsonInput(in);
+        Account account = input.readAccount();
+        input.expectEnd();
+        return account;
+    }
+
+    /**
+     * Reads a JSON array of objects from <code>in</code> into a list of {@link Account}.
+     *
+     * @throws IOException if the input is not a well-formed array of accounts.
+     */
+    static List<Account> readAccounts(InputStream in) throws IOException {
+        JsonInput input = new JsonInput(in);
+        List<Account> accounts = Lists.newArrayList();
+        input.expect('[');
+        if (input.peek() == ']') {
+            input.next();
+        } else {
+            do {
+                accounts.add(input.readAccount());
+            } while (input.nextSeparator(']'));
+        }
+        input.expectEnd();
+        return accounts;
+    }
+
+    /**
+     * Buffered writer of the JSON tokens used by {@link Account}.
+     */
+    private static class JsonOutput {
+        /** Digits of <code>Long.MIN_VALUE</code>, which can't be negated. */
+        private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+        private final OutputStream out;
+        private final byte[] buffer;
+        private int position;
+
+        JsonOutput(OutputStream out, int bufferSize) {
+            this.out = out;
+            this.buffer = new byte[bufferSize];
+        }
+
+        void writeAccount(Account account) throws IOException {
+            ensureCapacity(MAX_ACCOUNT_SIZE);
+            writeBytes(ID_PREFIX);
+            writeLong(account.getId());
+            writeBytes(MONEY_PREFIX);
+            writeDouble(account.getMoney());
+            writeBytes(OWNER_ID_PREFIX);
+            writeLong(account.getOwnerId());
+            buffer[position++] = '}';
+        }
+
+        void writeByte(char c) throws IOException {
+            ensureCapacity(1);
+            buffer[position++] = (byte) c;
+        }
+
+        void flush() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+
+        private void ensureCapacity(int size) throws IOException {
+            if (position + size > buffer.length) {
+                flush();
+            }
+        }
+
+        private void writeBytes(byte[] bytes) {
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        private void writeLong(long value) {
+            if (value == Long.MIN_VALUE) {
+                writeBytes(MIN_LONG);
+                return;
+            }
+            if (value < 0) {
+                buffer[position++] = '-';
+                value = -value;
+            }
+            int end = position + digits(value);
+            position = end;
+            do {
+                buffer[--end] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+        }
+
+        /**
+         * Integral amounts (the common case) are written without going through {@link Double#toString}; everything
+         * else falls back to it, which is the shortest representation that reads back to the same double.
+         *
+         * @throws IOException if <code>value</code> is NaN or infinite, which JSON cannot represent.
+         */
+        private void writeDouble(double value) throws IOException {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                throw new IOException("Money " + value + " cannot be encoded as JSON.");
+            }
+            if (value == Math.rint(value) && Math.abs(value) < MAX_INTEGRAL_MONEY) {
+                /* The sign bit rather than value < 0, so that -0.0 keeps its sign like in Double.toString. */
+                if (Double.doubleToRawLongBits(value) < 0) {
+                    buffer[position++] = '-';
+                }
+                writeLong(Math.abs((long) value));
+                buffer[position++] = '.';
+                buffer[position++] = '0';
+            } else {
+                String text = Double.toString(value);
+                for (int i = 0; i < text.length(); i++) {
+                    buffer[position++] = (byte) text.charAt(i);
+                }
+            }
+        }
+
+        private static int digits(long value) {
+            int digits = 1;
+            while (value >= 10) {
+                value /= 10;
+                digits++;
+            }
+            return digits;
+        }
+    }
+
+    /**
+     * Minimal pull parser for flat JSON objects with scalar values.
+     */
+    private static class JsonInput {
+        private final InputStream in;
+        private final StringBuilder token = new StringBuilder();
+        private int peeked = -2;
+
+        JsonInput(InputStream in) {
+            this.in = in;
+        }
+
+        Account readAccount() throws IOException {
+            long id = 0;
+            long ownerId = 0;
+            double money = 0.0;
+            boolean hasId = false;
+            boolean hasOwnerId = false;
+
+            expect('{');
+            if (peek() == '}') {
+                next();
+            } else {
+                do {
+                    String field = readString();
+                    expect(':');
+                    if (FIELD_ID.equals(field)) {
+                        id = readLong();
+                        hasId = true;
+                    } else if (FIELD_OWNER_ID.equals(field)) {
+                        ownerId = readLong();
+                        hasOwnerId = true;
+                    } else if (FIELD_MONEY.equals(field)) {
+                        money = readDouble();
+                    } else {
+                        skipScalar();
+                    }
+                } while (nextSeparator('}'));
+            }
+            if (!hasId || !hasOwnerId) {
+                throw new IOException("Account must have both \"id\" and \"ownerId\".");
+            }
+            return new Account(id, ownerId, money);
+        }
+
+        /**
+         * Consumes either a <code>,</code> (returning <code>true</code>) or the <code>closing</code> bracket
+         * (returning <code>false</code>).
+         */
+        boolean nextSeparator(char closing) throws IOException {
+            int c = next();
+            if (c == ',') {
+                return true;
+            }
+            if (c == closing) {
+                return false;
+            }
+            throw unexpected(c);
+        }
+
+        void expect(char expected) throws IOException {
+            int c = next();
+            if (c != expected) {
+                throw unexpected(c);
+            }
+        }
+
+        void expectEnd() throws IOException {
+            int c = next();
+            if (c != -1) {
+                throw unexpected(c);
+            }
+        }
+
+        /** Returns the next non-whitespace character without consuming it, or -1 at the end of input. */
+        int peek() throws IOException {
+            if (peeked == -2) {
+                int c;
+                do {
+                    c = in.read();
+                } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+                peeked = c;
+            }
+            return peeked;
+        }
+
+        /** Consumes the next non-whitespace character, or returns -1 at the end of input. */
+        int next() throws IOException {
+            int c = peek();
+            peeked = -2;
+            return c;
+        }
+
+        private long readLong() throws IOException {
+            readNumberToken();
+            try {
+                return Long.parseLong(token.toString());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid integer " + token + ".");
+            }
+        }
+
+        private double readDouble() throws IOException {
+            readNumberToken();
+            double value;
+            try {
+                value = Double.parseDouble(token.toString());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid number " + token + ".");
+            }
+            if (Double.isInfinite(value)) {
+                throw new IOException("Number " + token + " is out of range.");
+            }
+            return value;
+        }
+
+        private void readNumberToken() throws IOException {
+            token.setLength(0);
+            int c = peek();
+            while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+                token.append((char) c);
+                peeked = in.read();
+                c = peeked;
+            }
+            if (token.length() == 0) {
+                throw unexpected(c);
+            }
+            /* Whitespace right after a number must still be skipped by peek(). */
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                peeked = -2;
+            }
+        }
+
+        /** Reads a string literal; escape sequences other than <code>\"</code> and <code>\\</code> are rejected. */
+        private String readString() throws IOException {
+            expect('"');
+            token.setLength(0);
+            int c = in.read();
+            while (c != '"') {
+                if (c == -1) {
+                    throw unexpected(c);
+                }
+                if (c == '\\') {
+                    c = in.read();
+                    if (c != '"' && c != '\\') {
+                        throw unexpected(c);
+                    }
+                }
+                token.append((char) c);
+                c = in.read();
+            }
+            return token.toString();
+        }
+
+        private void skipScalar() throws IOException {
+            int c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                readNumberToken();
+            } else if (c == 't' || c == 'f' || c == 'n') {
+                do {
+                    peeked = in.read();
+                } while (peeked >= 'a' && peeked <= 'z');
+                if (peeked == ' ' || peeked == '\t' || peeked == '\n' || peeked == '\r') {
+                    peeked = -2;
+                }
+            } else {
+                throw unexpected(c);
+            }
+        }
+
+        private IOException unexpected(int c) {
+            return new IOException(c == -1 ? "Unexpected end of JSON input." : "Unexpected character '" + (char) c + "'.");
+        }
+    }
+}
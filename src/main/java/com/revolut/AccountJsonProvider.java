@@ -0,0 +1,75 @@
+package com.revolut;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Reads and writes {@link Account} and <code>List&lt;Account&gt;</code> entities with {@link AccountJsonCodec},
+ * taking precedence over the reflective JSON-B binding.
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class AccountJsonProvider implements MessageBodyWriter<Object>, MessageBodyReader<Object> {
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return isAccountOrAccountList(type, genericType);
+    }
+
+    @Override
+    public long getSize(Object entity, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders,
+                        OutputStream entityStream) throws IOException {
+        if (entity instanceof Account) {
+            AccountJsonCodec.writeAccount((Account) entity, entityStream);
+        } else {
+            AccountJsonCodec.writeAccounts((List<Account>) entity, entityStream);
+        }
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return isAccountOrAccountList(type, genericType);
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                           MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+        if (Account.class.equals(type)) {
+            return AccountJsonCodec.readAccount(entityStream);
+        } else {
+            return AccountJsonCodec.readAccounts(entityStream);
+        }
+    }
+
+    private static boolean isAccountOrAccountList(Class<?> type, Type genericType) {
+        if (type == Account.class) {
+            return true;
+        }
+        if (List.class.isAssignableFrom(type) && genericType instanceof ParameterizedType) {
+            Type[] typeArguments = ((ParameterizedType) genericType).getActualTypeArguments();
+            return typeArguments.length == 1 && typeArguments[0] == Account.class;
+        }
+        return false;
+    }
+}
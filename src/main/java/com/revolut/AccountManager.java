@@ -1,9 +1,11 @@
 package com.revolut;
 
+import java.util.List;
+
 /**
  * A simple account manager with the following operations
  * <ul>
- * <li>account creation and retrieval</li>
+ * <li>account creation (single and bulk) and retrieval</li>
  * <li>money deposit</li>
  * <li>money withdrawal</li>
  * <li>money transfer between two accounts</li>
@@ -15,6 +17,22 @@ public interface AccountManager {
      */
     Account openAccount(long ownerId);
 
+    /**
+     * Opens <code>count</code> empty accounts for the specified <code>ownerId</code> in one pass.
+     * Ids of the returned accounts are consecutive.
+     *
+     * @throws AccountOperationException if <code>count</code> is not positive or exceeds the bulk limit.
+     */
+    List<Account> openAccounts(long ownerId, int count) throws AccountOperationException;
+
+    /**
+     * Opens one empty account for every owner in <code>ownerIds</code> in one pass. The returned accounts are
+     * in the same order as <code>ownerIds</code> and their ids are consecutive.
+     *
+     * @throws AccountOperationException if <code>ownerIds</code> is empty or exceeds the bulk limit.
+     */
+    List<Account> openAccounts(List<Long> ownerIds) throws AccountOperationException;
+
     /**
      * Returns {@link Account} details for a specified <code>accountId</code>.
      *
@@ -42,11 +60,18 @@ public interface AccountManager {
      *
      * @param sourceAccountId the source account to transfer the <code>money</code> from.
      * @param targetAccountId the target account to transfer the <code>money</code> to.
-     * @throws AccountOperationException if accounts limits are exceeded (e.g. insufficient funds), or accounts are
-     *                                   the same.
+     * @throws AccountOperationException if accounts limits are exceeded (e.g. insufficient funds), accounts are
+     *                                   the same, or <code>money</code> is not a finite number.
      */
     void transfer(long sourceAccountId, long targetAccountId, double money) throws AccountOperationException;
 
+    /**
+     * Returns the epoch of the accounts: it differs between two managers that can hand out the same account id for
+     * different accounts (e.g. a new manager that keeps its accounts in memory), so that account ids kept elsewhere
+     * can be told apart from ids of unrelated accounts.
+     */
+    long getEpoch();
+
     /**
      * Account operation exception (e.g. insufficient funds).
      */
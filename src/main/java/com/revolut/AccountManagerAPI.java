@@ -1,59 +1,134 @@
 package com.revolut;
 
+import com.revolut.AdmissionController.Operation;
+
+import javax.annotation.PreDestroy;
 import javax.inject.Singleton;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import java.io.IOException;
+import java.util.List;
+
 import static com.revolut.AccountManagerConstants.ACCOUNT_MANAGER;
 import static com.revolut.AccountManagerConstants.PARAM_ACCOUNT_ID;
+import static com.revolut.AccountManagerConstants.PARAM_COUNT;
+import static com.revolut.AccountManagerConstants.PARAM_EXECUTE_AT;
+import static com.revolut.AccountManagerConstants.PARAM_INTERVAL_MILLIS;
 import static com.revolut.AccountManagerConstants.PARAM_MONEY;
 import static com.revolut.AccountManagerConstants.PARAM_OWNER_ID;
+import static com.revolut.AccountManagerConstants.PARAM_SCHEDULE_ID;
 import static com.revolut.AccountManagerConstants.PARAM_SOURCE_ACCOUNT_ID;
 import static com.revolut.AccountManagerConstants.PARAM_TARGET_ACCOUNT_ID;
+import static com.revolut.AccountManagerConstants.PATH_CANCEL_SCHEDULED_TRANSFER;
 import static com.revolut.AccountManagerConstants.PATH_DEPOSIT;
 import static com.revolut.AccountManagerConstants.PATH_GET_ACCOUNT;
 import static com.revolut.AccountManagerConstants.PATH_OPEN_ACCOUNT;
+import static com.revolut.AccountManagerConstants.PATH_OPEN_ACCOUNTS;
+import static com.revolut.AccountManagerConstants.PATH_OPEN_ACCOUNTS_FOR_OWNERS;
+import static com.revolut.AccountManagerConstants.PATH_SCHEDULE_TRANSFER;
 import static com.revolut.AccountManagerConstants.PATH_TRANSFER;
 import static com.revolut.AccountManagerConstants.PATH_WITHDRAW;
 
 /**
  * Root resource exposed at {@link AccountManagerConstants#ACCOUNT_MANAGER}.
  * <p\>
- * See {@link AccountManager} for an overview.
+ * See {@link AccountManager} for an overview. Every call first goes through the {@link AdmissionController}, which
+ * rejects it with 429/503 when the service or the account is overloaded.
+ * <p\>
+ * The API owns a background {@link TransferScheduler}, so it must be {@link #close()}d when the container shuts down.
  */
 @Path(ACCOUNT_MANAGER)
 @Singleton // To keep the state of the in-memory storage between the calls to the API.
 public class AccountManagerAPI {
     final static double MIN_MONEY = 0;
     final static double MAX_MONEY = 1e6;
+    /** Seconds a client is asked to wait before retrying a rejected request. */
+    final static int RETRY_AFTER_SECONDS = 1;
+
+    private static final String MESSAGE_EXECUTE_AT_IS_REQUIRED =
+            "Execution time must be specified.";
 
     private final AccountManager accountManager;
+    private final AdmissionController admissionController;
+    private final TransferScheduler transferScheduler;
 
     public AccountManagerAPI() {
-        this.accountManager = new AccountManagerWithMoneyLimits(MIN_MONEY, MAX_MONEY);
+        this(new AccountManagerWithMoneyLimits(MIN_MONEY, MAX_MONEY));
+    }
+
+    private AccountManagerAPI(AccountManager accountManager) {
+        this(accountManager,
+                AdmissionController.fromSystemProperties(),
+                TransferScheduler.fromSystemProperties(accountManager));
+    }
+
+    AccountManagerAPI(AccountManager accountManager, AdmissionController admissionController,
+                      TransferScheduler transferScheduler) {
+        this.accountManager = accountManager;
+        this.admissionController = admissionController;
+        this.transferScheduler = transferScheduler;
     }
 
     @POST
     @Path(PATH_OPEN_ACCOUNT)
     @Produces(MediaType.APPLICATION_JSON)
     public Response openAccount(@FormParam(PARAM_OWNER_ID) long ownerId) {
-        Account account = accountManager.openAccount(ownerId);
-        return Response.status(Response.Status.OK).entity(account).build();
+        try (AdmissionController.Permit permit = admissionController.acquire(Operation.OPEN_ACCOUNT)) {
+            Account account = accountManager.openAccount(ownerId);
+            return Response.status(Response.Status.OK).entity(account).build();
+        } catch (AdmissionController.AdmissionException e) {
+            return createRejectedMessage(e);
+        }
+    }
+
+    @POST
+    @Path(PATH_OPEN_ACCOUNTS)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response openAccounts(@FormParam(PARAM_OWNER_ID) long ownerId,
+                                 @FormParam(PARAM_COUNT) int count) {
+        try (AdmissionController.Permit permit = admissionController.acquire(Operation.OPEN_ACCOUNTS)) {
+            List<Account> accounts = accountManager.openAccounts(ownerId, count);
+            return Response.status(Response.Status.OK).entity(new GenericEntity<List<Account>>(accounts) {}).build();
+        } catch (AccountManager.AccountOperationException e) {
+            return createBadRequestMessage(e);
+        } catch (AdmissionController.AdmissionException e) {
+            return createRejectedMessage(e);
+        }
+    }
+
+    @POST
+    @Path(PATH_OPEN_ACCOUNTS_FOR_OWNERS)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response openAccountsForOwners(@FormParam(PARAM_OWNER_ID) List<Long> ownerIds) {
+        try (AdmissionController.Permit permit = admissionController.acquire(Operation.OPEN_ACCOUNTS)) {
+            List<Account> accounts = accountManager.openAccounts(ownerIds);
+            return Response.status(Response.Status.OK).entity(new GenericEntity<List<Account>>(accounts) {}).build();
+        } catch (AccountManager.AccountOperationException e) {
+            return createBadRequestMessage(e);
+        } catch (AdmissionController.AdmissionException e) {
+            return createRejectedMessage(e);
+        }
     }
 
     @POST
     @Path(PATH_GET_ACCOUNT)
     @Produces(MediaType.APPLICATION_JSON)
     public Response getAccount(@FormParam(PARAM_ACCOUNT_ID) long accountId) {
-        try {
+        try (AdmissionController.Permit permit = admissionController.acquire(Operation.GET_ACCOUNT, accountId)) {
             Account account = accountManager.getAccount(accountId);
             return Response.status(Response.Status.OK).entity(account).build();
         } catch (AccountManager.AccountOperationException e) {
             return createBadRequestMessage(e);
+        } catch (AdmissionController.AdmissionException e) {
+            return createRejectedMessage(e);
         }
     }
 
@@ -62,11 +137,13 @@ public class AccountManagerAPI {
     @Produces(MediaType.APPLICATION_JSON)
     public Response deposit(@FormParam(PARAM_ACCOUNT_ID) long accountId,
                             @FormParam(PARAM_MONEY) double money) {
-        try {
+        try (AdmissionController.Permit permit = admissionController.acquire(Operation.DEPOSIT, accountId)) {
             accountManager.deposit(accountId, money);
             return Response.status(Response.Status.OK).build();
         } catch (AccountManager.AccountOperationException e) {
             return createBadRequestMessage(e);
+        } catch (AdmissionController.AdmissionException e) {
+            return createRejectedMessage(e);
         }
     }
 
@@ -78,11 +155,13 @@ public class AccountManagerAPI {
         /* While this API call is very similar to <code>deposit</code>, semantically, they are likely to take different
            evolution paths (e.g. different error handling scenarios, etc), so it was decided to maintain the two entry
            points separately. */
-        try {
+        try (AdmissionController.Permit permit = admissionController.acquire(Operation.WITHDRAW, accountId)) {
             accountManager.withdraw(accountId, money);
             return Response.status(Response.Status.OK).build();
         } catch (AccountManager.AccountOperationException e) {
             return createBadRequestMessage(e);
+        } catch (AdmissionController.AdmissionException e) {
+            return createRejectedMessage(e);
         }
     }
 
@@ -92,15 +171,74 @@ public class AccountManagerAPI {
     public Response transfer(@FormParam(PARAM_SOURCE_ACCOUNT_ID) long sourceAccountId,
                              @FormParam(PARAM_TARGET_ACCOUNT_ID) long targetAccountId,
                              @FormParam(PARAM_MONEY) double money) {
-        try {
+        try (AdmissionController.Permit permit = admissionController.acquire(Operation.TRANSFER, sourceAccountId)) {
             accountManager.transfer(sourceAccountId, targetAccountId, money);
             return Response.status(Response.Status.OK).build();
         } catch (AccountManager.AccountOperationException e) {
             return createBadRequestMessage(e);
+        } catch (AdmissionController.AdmissionException e) {
+            return createRejectedMessage(e);
+        }
+    }
+
+    @POST
+    @Path(PATH_SCHEDULE_TRANSFER)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response scheduleTransfer(@FormParam(PARAM_SOURCE_ACCOUNT_ID) long sourceAccountId,
+                                     @FormParam(PARAM_TARGET_ACCOUNT_ID) long targetAccountId,
+                                     @FormParam(PARAM_MONEY) double money,
+                                     @FormParam(PARAM_EXECUTE_AT) Long executeAtMillis,
+                                     @FormParam(PARAM_INTERVAL_MILLIS) @DefaultValue("0") long intervalMillis) {
+        /* Boxed, so that a missing execution time isn't taken as 0, i.e. "right away". */
+        if (executeAtMillis == null) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(ErrorBody.of(MESSAGE_EXECUTE_AT_IS_REQUIRED)).build();
+        }
+        try (AdmissionController.Permit permit =
+                     admissionController.acquire(Operation.SCHEDULE_TRANSFER, sourceAccountId)) {
+            long scheduleId = transferScheduler.schedule(
+                    sourceAccountId, targetAccountId, money, executeAtMillis, intervalMillis);
+            return Response.status(Response.Status.OK).entity(scheduleId).build();
+        } catch (AccountManager.AccountOperationException e) {
+            return createBadRequestMessage(e);
+        } catch (AdmissionController.AdmissionException e) {
+            return createRejectedMessage(e);
+        }
+    }
+
+    @POST
+    @Path(PATH_CANCEL_SCHEDULED_TRANSFER)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response cancelScheduledTransfer(@FormParam(PARAM_SCHEDULE_ID) long scheduleId) {
+        try (AdmissionController.Permit permit = admissionController.acquire(Operation.SCHEDULE_TRANSFER)) {
+            transferScheduler.cancel(scheduleId);
+            return Response.status(Response.Status.OK).build();
+        } catch (AccountManager.AccountOperationException e) {
+            return createBadRequestMessage(e);
+        } catch (AdmissionController.AdmissionException e) {
+            return createRejectedMessage(e);
+        }
+    }
+
+    /**
+     * Stops executing scheduled transfers and closes their journal. Called by the container on shutdown, whether the
+     * API was registered as an instance or discovered by classpath scanning. Safe to call more than once.
+     */
+    @PreDestroy
+    public void close() {
+        try {
+            transferScheduler.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to close the scheduled transfer journal", e);
         }
     }
 
     private Response createBadRequestMessage(AccountManager.AccountOperationException e) {
-        return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        return Response.status(Response.Status.BAD_REQUEST).entity(ErrorBody.of(e.getMessage())).build();
+    }
+
+    private Response createRejectedMessage(AdmissionController.AdmissionException e) {
+        return Response.status(e.getStatus()).header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .entity(ErrorBody.of(e.getMessage())).build();
     }
 }
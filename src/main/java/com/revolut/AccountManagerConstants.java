@@ -2,17 +2,26 @@ package com.revolut;
 
 public class AccountManagerConstants {
     public static final String ACCOUNT_MANAGER = "accountmanager";
+    public static final String READY = "ready";
 
     public static final String PATH_OPEN_ACCOUNT = "/openAccount";
+    public static final String PATH_OPEN_ACCOUNTS = "/openAccounts";
+    public static final String PATH_OPEN_ACCOUNTS_FOR_OWNERS = "/openAccountsForOwners";
     public static final String PATH_GET_ACCOUNT = "/getAccount";
     public static final String PATH_DEPOSIT = "/deposit";
     public static final String PATH_WITHDRAW = "/withdraw";
     public static final String PATH_TRANSFER = "/transfer";
+    public static final String PATH_SCHEDULE_TRANSFER = "/scheduleTransfer";
+    public static final String PATH_CANCEL_SCHEDULED_TRANSFER = "/cancelScheduledTransfer";
 
     public static final String PARAM_OWNER_ID = "ownerId";
+    public static final String PARAM_COUNT = "count";
     public static final String PARAM_ACCOUNT_ID = "accountId";
     public static final String PARAM_SOURCE_ACCOUNT_ID = "sourceAccountId";
     public static final String PARAM_TARGET_ACCOUNT_ID = "targetAccountId";
     public static final String PARAM_MONEY = "money";
+    public static final String PARAM_EXECUTE_AT = "executeAt";
+    public static final String PARAM_INTERVAL_MILLIS = "intervalMillis";
+    public static final String PARAM_SCHEDULE_ID = "scheduleId";
 
 }
@@ -1,27 +1,50 @@
 package com.revolut;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of {@link AccountManager} that supports all required operations.
  * Complexity of all operations is amortized O(1), implementation is backed by the {@link HashMap} to store
  * accounts.
  * <p/>
+ * Account ids are allocated from an {@link AtomicLong}, so they are unique and dense (no gaps), and bulk opening
+ * reserves a whole block of consecutive ids with a single atomic increment. This doesn't make opening accounts
+ * lock-free: every insert still takes the manager lock, once per account or once per batch.
+ * <p/>
+ * Bulk opening is capped at {@link #MAX_BULK_ACCOUNTS}, so that a batch holds the lock (and stalls deposits,
+ * withdrawals and transfers) only briefly. The storage is not pre-sized for a batch: a {@link HashMap} can only be
+ * pre-sized by rehashing every account into a new one under the lock, which costs as much as the single resize a batch
+ * triggers at most once the storage holds {@link #MAX_BULK_ACCOUNTS} accounts.
+ * <p/>
  * Accounts can have between <code>minMoney</code> and <code>maxMoney</code>, inclusive.
+ * <p/>
+ * Accounts are kept in memory only, so ids start over from zero with every manager: each one has its own random
+ * epoch.
  */
 public class AccountManagerWithMoneyLimits implements AccountManager {
+    /** The maximum number of accounts that can be opened by a single bulk operation. */
+    static final int MAX_BULK_ACCOUNTS = 10000;
+
     private static final String MESSAGE_ACCOUNT_DOES_NOT_EXIST =
             "Account does not exist.";
     private static final String MESSAGE_UNABLE_TO_DEPOSIT_DUE_TO_ACCOUNT_LIMIT =
             "Unable to perform the operation due to account limits.";
     private static final String MESSAGE_MONEY_MUST_BE_POSITIVE =
             "Specified money must be positive.";
+    private static final String MESSAGE_MONEY_MUST_BE_FINITE =
+            "Specified money must be a finite number.";
     private static final String MESSAGE_SOURCE_AND_TARGET_ACCOUNTS_MUST_BE_DIFFERENT =
             "Source and target accounts must be different.";
+    private static final String MESSAGE_INVALID_NUMBER_OF_ACCOUNTS =
+            "Number of accounts to open must be between 1 and " + MAX_BULK_ACCOUNTS + ".";
 
     private final double minMoney;
     private final double maxMoney;
@@ -29,7 +52,11 @@ public class AccountManagerWithMoneyLimits implements AccountManager {
     /** Maps from account id to the {@link Account}. */
     private final Map<Long, Account> accountsMap = Maps.newHashMap();
 
-    private long maxAccountId = 0;
+    /** Next account id to hand out, allocated without holding the manager lock. */
+    private final AtomicLong nextAccountId = new AtomicLong(0);
+
+    /** Random, as nothing of the accounts outlives this manager. */
+    private final long epoch = new Random().nextLong();
 
     /**
      * @param minMoney The minimum amount of money to allow in the account (must be zero or less).
@@ -44,12 +71,51 @@ public class AccountManagerWithMoneyLimits implements AccountManager {
 
     /** {@inheritDoc} */
     @Override
-    public synchronized Account openAccount(long ownerId) {
-        Account account = new Account(maxAccountId++, ownerId, 0.0);
-        accountsMap.put(account.getId(), account);
+    public Account openAccount(long ownerId) {
+        Account account = new Account(nextAccountId.getAndIncrement(), ownerId, 0.0);
+        synchronized (this) {
+            accountsMap.put(account.getId(), account);
+        }
         return account;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public List<Account> openAccounts(long ownerId, int count) throws AccountOperationException {
+        checkNumberOfAccounts(count);
+        long firstAccountId = nextAccountId.getAndAdd(count);
+        List<Account> accounts = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            accounts.add(new Account(firstAccountId + i, ownerId, 0.0));
+        }
+        insertAccounts(accounts);
+        return accounts;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Account> openAccounts(List<Long> ownerIds) throws AccountOperationException {
+        int count = ownerIds.size();
+        checkNumberOfAccounts(count);
+        long firstAccountId = nextAccountId.getAndAdd(count);
+        List<Account> accounts = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            accounts.add(new Account(firstAccountId + i, ownerIds.get(i), 0.0));
+        }
+        insertAccounts(accounts);
+        return accounts;
+    }
+
+    /**
+     * Inserts freshly opened <code>accounts</code> into the storage in a single pass under the lock. The accounts are
+     * built outside of the lock, so the lock is only held for the map insertions.
+     */
+    private synchronized void insertAccounts(List<Account> accounts) {
+        for (Account account : accounts) {
+            accountsMap.put(account.getId(), account);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public synchronized Account getAccount(long accountId) throws AccountOperationException {
@@ -79,6 +145,7 @@ public class AccountManagerWithMoneyLimits implements AccountManager {
         if (sourceAccountId == targetAccountId) {
             throw new AccountOperationException(MESSAGE_SOURCE_AND_TARGET_ACCOUNTS_MUST_BE_DIFFERENT);
         } else {
+            checkFiniteMoney(money);
             checkCanUpdateMoney(sourceAccountId, -money);
             checkCanUpdateMoney(targetAccountId, money);
 
@@ -87,12 +154,35 @@ public class AccountManagerWithMoneyLimits implements AccountManager {
         }
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public long getEpoch() {
+        return epoch;
+    }
+
+    private void checkNumberOfAccounts(int count) throws AccountOperationException {
+        if (count <= 0 || count > MAX_BULK_ACCOUNTS) {
+            throw new AccountOperationException(MESSAGE_INVALID_NUMBER_OF_ACCOUNTS);
+        }
+    }
+
     private void checkPositiveMoney(double money) throws AccountOperationException {
+        checkFiniteMoney(money);
         if (money <= 0.0) {
             throw new AccountOperationException(MESSAGE_MONEY_MUST_BE_POSITIVE);
         }
     }
 
+    /**
+     * NaN would pass every limit check, as all comparisons with it are false, and neither NaN nor infinity can be
+     * encoded as JSON.
+     */
+    private void checkFiniteMoney(double money) throws AccountOperationException {
+        if (Double.isNaN(money) || Double.isInfinite(money)) {
+            throw new AccountOperationException(MESSAGE_MONEY_MUST_BE_FINITE);
+        }
+    }
+
     /**
      * Attempts to update <code>accountId</code> with signed <code>moneyDelta</code>.
      */
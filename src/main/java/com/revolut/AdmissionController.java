@@ -0,0 +1,338 @@
+package com.revolut;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission layer in front of {@link AccountManagerAPI} that rejects excess requests fast instead of letting them
+ * queue behind the {@link AccountManager} lock.
+ * <ul>
+ * <li>Every {@link Operation} has its own bounded in-flight limit. When a <code>targetLatencyMillis</code> is set,
+ * the limit adapts to observed latency: it grows by one while requests complete within the target and shrinks
+ * multiplicatively when they don't (AIMD), at most once per target latency so that a single stall doesn't collapse
+ * it, staying between <code>minInFlight</code> and <code>maxInFlight</code>.</li>
+ * <li>Optionally, requests touching the same account are rate limited with a token bucket of that account. Only the
+ * {@link #MAX_TRACKED_ACCOUNTS} most recently used accounts keep a bucket, so memory stays bounded regardless of how
+ * many account ids clients send; an evicted account starts over with a full burst.</li>
+ * </ul>
+ * Requests over the in-flight limit are rejected with 503, requests over the account rate with 429. A request
+ * rejected with 503 doesn't use up the account's rate.
+ * <p/>
+ * Latency is measured from the arrival of the request at the {@link RequestWorkerPool}, so time spent waiting for a
+ * worker counts against the target too. The in-flight limit defaults to the number of worker threads: more requests
+ * than that can't be running at once anyway.
+ */
+public class AdmissionController {
+    /** Operations that are admitted independently of each other. */
+    public enum Operation {
+        OPEN_ACCOUNT, OPEN_ACCOUNTS, GET_ACCOUNT, DEPOSIT, WITHDRAW, TRANSFER, SCHEDULE_TRANSFER
+    }
+
+    static final String PROPERTY_MAX_IN_FLIGHT = "accountmanager.admission.maxInFlight";
+    static final String PROPERTY_MIN_IN_FLIGHT = "accountmanager.admission.minInFlight";
+    static final String PROPERTY_TARGET_LATENCY_MILLIS = "accountmanager.admission.targetLatencyMillis";
+    static final String PROPERTY_ACCOUNT_REQUESTS_PER_SECOND = "accountmanager.admission.accountRequestsPerSecond";
+    static final String PROPERTY_ACCOUNT_BURST = "accountmanager.admission.accountBurst";
+
+    /* The maximum in-flight limit defaults to the number of worker threads of the RequestWorkerPool. */
+    static final int DEFAULT_MIN_IN_FLIGHT = 8;
+    static final long DEFAULT_TARGET_LATENCY_MILLIS = 100;
+    /** Per-account rate limiting is disabled by default. */
+    static final int DEFAULT_ACCOUNT_REQUESTS_PER_SECOND = 0;
+    static final int DEFAULT_ACCOUNT_BURST = 100;
+
+    static final int STATUS_TOO_MANY_REQUESTS = 429;
+    static final int STATUS_SERVICE_UNAVAILABLE = 503;
+
+    /** Account id used for operations that are not tied to an existing account. */
+    static final long NO_ACCOUNT = -1;
+
+    /** The most accounts that have a token bucket at a time; the least recently used ones are evicted beyond that. */
+    static final int MAX_TRACKED_ACCOUNTS = 65536;
+
+    private static final String MESSAGE_OVERLOADED =
+            "Service is overloaded, retry later.";
+    private static final String MESSAGE_ACCOUNT_RATE_EXCEEDED =
+            "Too many requests for the account, retry later.";
+
+    /** Number of independently locked segments the account buckets are split into. */
+    private static final int ACCOUNT_BUCKET_SEGMENTS = 64;
+
+    /** Ratio the in-flight limit is multiplied by when latency exceeds the target. */
+    private static final double LIMIT_BACKOFF_RATIO = 0.9;
+
+    private final Map<Operation, ConcurrencyLimit> limits = Maps.newEnumMap(Operation.class);
+    private final int accountRequestsPerSecond;
+    private final int accountBurst;
+    private final AccountBucketSegment[] accountBuckets;
+
+    /**
+     * @param maxInFlight                The maximum number of concurrent requests per operation (must be positive).
+     * @param minInFlight                The lowest the adaptive limit can shrink to (between 1 and
+     *                                   <code>maxInFlight</code>).
+     * @param targetLatencyMillis        Latency the adaptive limit aims for, or zero to keep the limit fixed at
+     *                                   <code>maxInFlight</code>.
+     * @param accountRequestsPerSecond   Sustained requests per second allowed for one account, or zero to disable
+     *                                   per-account rate limiting.
+     * @param accountBurst               Requests one account can burst above the sustained rate (must be positive).
+     */
+    AdmissionController(int maxInFlight, int minInFlight, long targetLatencyMillis,
+                        int accountRequestsPerSecond, int accountBurst) {
+        Preconditions.checkArgument(maxInFlight > 0);
+        Preconditions.checkArgument(minInFlight > 0 && minInFlight <= maxInFlight);
+        Preconditions.checkArgument(targetLatencyMillis >= 0);
+        Preconditions.checkArgument(accountRequestsPerSecond >= 0);
+        Preconditions.checkArgument(accountBurst > 0);
+
+        long targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        for (Operation operation : Operation.values()) {
+            limits.put(operation, new ConcurrencyLimit(minInFlight, maxInFlight, targetLatencyNanos));
+        }
+
+        this.accountRequestsPerSecond = accountRequestsPerSecond;
+        this.accountBurst = accountBurst;
+        if (accountRequestsPerSecond > 0) {
+            accountBuckets = new AccountBucketSegment[ACCOUNT_BUCKET_SEGMENTS];
+            for (int i = 0; i < accountBuckets.length; i++) {
+                accountBuckets[i] = new AccountBucketSegment(MAX_TRACKED_ACCOUNTS / ACCOUNT_BUCKET_SEGMENTS);
+            }
+        } else {
+            accountBuckets = null;
+        }
+    }
+
+    /**
+     * Creates a controller configured from the <code>accountmanager.admission.*</code> system properties, falling
+     * back to the defaults for the ones that are not set.
+     */
+    static AdmissionController fromSystemProperties() {
+        int maxInFlight =
+                Integer.getInteger(PROPERTY_MAX_IN_FLIGHT, RequestWorkerPool.getThreadsFromSystemProperties());
+        return new AdmissionController(
+                maxInFlight,
+                Integer.getInteger(PROPERTY_MIN_IN_FLIGHT, Math.min(DEFAULT_MIN_IN_FLIGHT, maxInFlight)),
+                Long.getLong(PROPERTY_TARGET_LATENCY_MILLIS, DEFAULT_TARGET_LATENCY_MILLIS),
+                Integer.getInteger(PROPERTY_ACCOUNT_REQUESTS_PER_SECOND, DEFAULT_ACCOUNT_REQUESTS_PER_SECOND),
+                Integer.getInteger(PROPERTY_ACCOUNT_BURST, DEFAULT_ACCOUNT_BURST));
+    }
+
+    /**
+     * Admits a request for <code>operation</code> that is not tied to an existing account.
+     *
+     * @throws AdmissionException if the request must be rejected.
+     */
+    Permit acquire(Operation operation) throws AdmissionException {
+        return acquire(operation, NO_ACCOUNT);
+    }
+
+    /**
+     * Admits a request for <code>operation</code> on <code>accountId</code>. The returned {@link Permit} must be
+     * closed once the request completes.
+     *
+     * @throws AdmissionException if the request must be rejected.
+     */
+    Permit acquire(Operation operation, long accountId) throws AdmissionException {
+        ConcurrencyLimit limit = limits.get(operation);
+        if (!limit.tryAcquire()) {
+            throw new AdmissionException(STATUS_SERVICE_UNAVAILABLE, MESSAGE_OVERLOADED);
+        }
+        /* Checked after the in-flight limit, so that a request rejected with 503 doesn't use up a token. */
+        if (accountBuckets != null && accountId != NO_ACCOUNT
+                && !getAccountBucket(accountId).tryConsume(System.nanoTime())) {
+            limit.cancel();
+            throw new AdmissionException(STATUS_TOO_MANY_REQUESTS, MESSAGE_ACCOUNT_RATE_EXCEEDED);
+        }
+        return new Permit(limit, RequestWorkerPool.getArrivalNanos());
+    }
+
+    /** Returns the current in-flight limit for <code>operation</code>. */
+    int getLimit(Operation operation) {
+        return limits.get(operation).limit;
+    }
+
+    /** Returns the number of admitted requests for <code>operation</code> that haven't completed yet. */
+    int getInFlight(Operation operation) {
+        return limits.get(operation).inFlight.get();
+    }
+
+    /** Returns the number of accounts that currently have a token bucket. */
+    int getTrackedAccounts() {
+        int tracked = 0;
+        if (accountBuckets != null) {
+            for (AccountBucketSegment segment : accountBuckets) {
+                synchronized (segment) {
+                    tracked += segment.size();
+                }
+            }
+        }
+        return tracked;
+    }
+
+    /** Returns the token bucket of <code>accountId</code>, creating it with a full burst if it isn't tracked. */
+    private TokenBucket getAccountBucket(long accountId) {
+        int hash = (int) (accountId ^ (accountId >>> 32));
+        AccountBucketSegment segment = accountBuckets[(hash ^ (hash >>> 16)) & (ACCOUNT_BUCKET_SEGMENTS - 1)];
+        synchronized (segment) {
+            TokenBucket bucket = segment.get(accountId);
+            if (bucket == null) {
+                bucket = new TokenBucket(accountRequestsPerSecond, accountBurst);
+                segment.put(accountId, bucket);
+            }
+            return bucket;
+        }
+    }
+
+    /**
+     * An admitted request. Closing it frees the in-flight slot and feeds the observed latency to the adaptive limit.
+     */
+    static class Permit implements AutoCloseable {
+        private final ConcurrencyLimit limit;
+        private final long startNanos;
+        private boolean closed;
+
+        private Permit(ConcurrencyLimit limit, long startNanos) {
+            this.limit = limit;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                limit.release(System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    /**
+     * In-flight limit of a single operation, adapted with additive increase / multiplicative decrease.
+     */
+    static class ConcurrencyLimit {
+        private final int minLimit;
+        private final int maxLimit;
+        private final long targetLatencyNanos;
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+        private volatile int limit;
+        /** {@link System#nanoTime()} before which slow completions don't shrink the limit again. */
+        private long nextDecreaseNanos;
+
+        ConcurrencyLimit(int minLimit, int maxLimit, long targetLatencyNanos) {
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.targetLatencyNanos = targetLatencyNanos;
+            this.limit = maxLimit;
+            this.nextDecreaseNanos = System.nanoTime();
+        }
+
+        boolean tryAcquire() {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= limit) {
+                    return false;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release(long latencyNanos) {
+            release(latencyNanos, System.nanoTime());
+        }
+
+        void release(long latencyNanos, long nowNanos) {
+            int saturation = inFlight.getAndDecrement();
+            if (targetLatencyNanos > 0) {
+                adapt(latencyNanos, saturation, nowNanos);
+            }
+        }
+
+        /** Frees a slot taken by {@link #tryAcquire()} for a request that was rejected after all. */
+        void cancel() {
+            inFlight.decrementAndGet();
+        }
+
+        /**
+         * Shrinks the limit when <code>latencyNanos</code> exceeds the target, and grows it when the target is met
+         * while the limit was actually the bottleneck (<code>inFlight</code> was at the limit). The limit shrinks at
+         * most once per target latency: requests that were in flight together during a stall (e.g. a GC pause) all
+         * complete late, but they are one congestion signal.
+         */
+        private synchronized void adapt(long latencyNanos, int inFlight, long nowNanos) {
+            if (latencyNanos > targetLatencyNanos) {
+                if (nowNanos - nextDecreaseNanos >= 0) {
+                    limit = Math.max(minLimit, (int) (limit * LIMIT_BACKOFF_RATIO));
+                    nextDecreaseNanos = nowNanos + targetLatencyNanos;
+                }
+            } else if (inFlight >= limit && limit < maxLimit) {
+                limit++;
+            }
+        }
+    }
+
+    /**
+     * Token buckets of the accounts hashed to one segment, evicting the least recently used beyond
+     * <code>capacity</code>. Guarded by its own monitor.
+     */
+    private static class AccountBucketSegment extends LinkedHashMap<Long, TokenBucket> {
+        private final int capacity;
+
+        AccountBucketSegment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, TokenBucket> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * Token bucket refilled continuously at <code>ratePerSecond</code> up to <code>capacity</code> tokens.
+     */
+    static class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefillNanos;
+
+        TokenBucket(int ratePerSecond, int capacity) {
+            this.tokensPerNano = ratePerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        synchronized boolean tryConsume(long nowNanos) {
+            tokens = Math.min(capacity, tokens + (nowNanos - lastRefillNanos) * tokensPerNano);
+            lastRefillNanos = nowNanos;
+            if (tokens < 1.0) {
+                return false;
+            }
+            tokens -= 1.0;
+            return true;
+        }
+    }
+
+    /**
+     * Admission rejection, carrying the HTTP status to respond with.
+     */
+    static class AdmissionException extends Exception {
+        private final int status;
+
+        AdmissionException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+    }
+}
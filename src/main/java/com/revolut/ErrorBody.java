@@ -0,0 +1,42 @@
+package com.revolut;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Body of an error response, encoded once and reused for every response with the same message.
+ * <p/>
+ * Error messages are fixed constants (see {@link AccountManagerWithMoneyLimits} and {@link AdmissionController}), so
+ * the cache stays small; it is bounded anyway in case a message ever becomes dynamic.
+ */
+class ErrorBody {
+    private static final int MAX_CACHED_BODIES = 64;
+    private static final ConcurrentMap<String, ErrorBody> CACHE = new ConcurrentHashMap<>();
+
+    private final byte[] bytes;
+
+    private ErrorBody(String message) {
+        this.bytes = message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns the encoded body for <code>message</code>. */
+    static ErrorBody of(String message) {
+        ErrorBody body = CACHE.get(message);
+        if (body == null) {
+            body = new ErrorBody(message);
+            if (CACHE.size() < MAX_CACHED_BODIES) {
+                ErrorBody cached = CACHE.putIfAbsent(message, body);
+                if (cached != null) {
+                    body = cached;
+                }
+            }
+        }
+        return body;
+    }
+
+    /** The encoded body; callers must not modify it. */
+    byte[] getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,35 @@
+package com.revolut;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes the pre-encoded bytes of an {@link ErrorBody} as is.
+ */
+@Provider
+public class ErrorBodyWriter implements MessageBodyWriter<ErrorBody> {
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == ErrorBody.class;
+    }
+
+    @Override
+    public long getSize(ErrorBody errorBody, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType) {
+        return errorBody.getBytes().length;
+    }
+
+    @Override
+    public void writeTo(ErrorBody errorBody, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders,
+                        OutputStream entityStream) throws IOException {
+        entityStream.write(errorBody.getBytes());
+    }
+}
@@ -0,0 +1,175 @@
+package com.revolut;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Hierarchical timing wheel holding {@link Timer}s keyed by their expiration tick.
+ * <p/>
+ * The wheel has {@link #LEVELS} levels of {@link #SLOTS} slots; a slot of level <code>i</code> spans
+ * <code>SLOTS^i</code> ticks. A timer sits in the lowest level where its expiration tick shares all higher digits with
+ * the current tick, and is cascaded one level down whenever the current tick enters its slot. Timers beyond the range
+ * of the top level wait in an overflow list that is re-inserted every time the top level wraps around.
+ * <p/>
+ * Every slot is an intrusive, circular, doubly linked list with a sentinel, so adding and removing a timer is O(1)
+ * and needs no allocation besides the timer itself. Advancing costs O(1) per tick plus O(1) per cascaded timer.
+ * <p/>
+ * Not thread-safe.
+ */
+class HierarchicalTimingWheel<T extends HierarchicalTimingWheel.Timer> {
+    static final int SLOT_BITS = 6;
+    static final int SLOTS = 1 << SLOT_BITS;
+    static final int LEVELS = 5;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    /** Sentinels of the slot lists, by level and slot. */
+    private final Timer[][] wheel = new Timer[LEVELS][SLOTS];
+    /** Sentinel of the timers beyond the range of the top level. */
+    private final Timer overflow = new Timer();
+    /** Sentinel of the expired timers, in expiration order. */
+    private final Timer expired = new Timer();
+
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param startTick The tick the wheel starts at (must be zero or more).
+     */
+    HierarchicalTimingWheel(long startTick) {
+        Preconditions.checkArgument(startTick >= 0);
+        this.currentTick = startTick;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                wheel[level][slot] = new Timer();
+            }
+        }
+    }
+
+    /**
+     * Adds <code>timer</code>, which must not be in a wheel already. Timers expiring at or before the current tick
+     * are expired right away.
+     */
+    void add(T timer) {
+        Preconditions.checkState(!timer.isScheduled());
+        place(timer);
+        size++;
+    }
+
+    /**
+     * Removes <code>timer</code> whether it is still pending or already expired.
+     *
+     * @return <code>false</code> if the timer was not in the wheel.
+     */
+    boolean remove(T timer) {
+        if (!timer.isScheduled()) {
+            return false;
+        }
+        ((Timer) timer).unlink();
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to <code>tick</code>, moving all timers that expire on the way to the expired list.
+     */
+    void advanceTo(long tick) {
+        while (currentTick < tick) {
+            currentTick++;
+            if ((currentTick & ((1L << (SLOT_BITS * LEVELS)) - 1)) == 0) {
+                cascade(overflow);
+            }
+            /* Higher levels first, so that cascaded timers land in lower slots that are yet to be processed. */
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(wheel[level][slotIndex(currentTick, level)]);
+                }
+            }
+            Timer slot = wheel[0][slotIndex(currentTick, 0)];
+            while (slot.next != slot) {
+                Timer timer = slot.next;
+                timer.unlink();
+                expired.linkBefore(timer);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the earliest expired timer, or <code>null</code> if no timer has expired.
+     */
+    @SuppressWarnings("unchecked")
+    T pollExpired() {
+        if (expired.next == expired) {
+            return null;
+        }
+        Timer timer = expired.next;
+        timer.unlink();
+        size--;
+        return (T) timer;
+    }
+
+    long getCurrentTick() {
+        return currentTick;
+    }
+
+    /** Returns the number of pending and expired timers. */
+    int size() {
+        return size;
+    }
+
+    private void place(Timer timer) {
+        long tick = timer.expirationTick;
+        if (tick <= currentTick) {
+            expired.linkBefore(timer);
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            int higherBits = SLOT_BITS * (level + 1);
+            if ((tick >>> higherBits) == (currentTick >>> higherBits)) {
+                wheel[level][slotIndex(tick, level)].linkBefore(timer);
+                return;
+            }
+        }
+        overflow.linkBefore(timer);
+    }
+
+    /** Re-places every timer of the <code>sentinel</code> list relative to the current tick. */
+    private void cascade(Timer sentinel) {
+        while (sentinel.next != sentinel) {
+            Timer timer = sentinel.next;
+            timer.unlink();
+            place(timer);
+        }
+    }
+
+    private static int slotIndex(long tick, int level) {
+        return (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+    }
+
+    /**
+     * Element of the wheel. Subclasses carry the payload; the links are managed by the wheel only.
+     */
+    static class Timer {
+        long expirationTick;
+        private Timer prev = this;
+        private Timer next = this;
+
+        /** Returns <code>true</code> if the timer is in a wheel, pending or expired. */
+        boolean isScheduled() {
+            return next != this;
+        }
+
+        private void linkBefore(Timer timer) {
+            timer.prev = prev;
+            timer.next = this;
+            prev.next = timer;
+            prev = timer;
+        }
+
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = this;
+            next = this;
+        }
+    }
+}
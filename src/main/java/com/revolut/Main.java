@@ -1,38 +1,197 @@
 package com.revolut;
 
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerLifecycleListener;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+
+import static com.revolut.AccountManagerConstants.ACCOUNT_MANAGER;
+import static com.revolut.AccountManagerConstants.PARAM_ACCOUNT_ID;
+import static com.revolut.AccountManagerConstants.PARAM_MONEY;
+import static com.revolut.AccountManagerConstants.PATH_DEPOSIT;
+import static com.revolut.AccountManagerConstants.PATH_GET_ACCOUNT;
 
 /**
  * Main class.
+ * <p/>
+ * Resources and providers are registered explicitly instead of scanning the classpath, and the
+ * {@link AccountManagerAPI} is built before the server starts. Before reporting that it is ready through the
+ * {@link ReadinessResource} probe, <code>main</code> warms up the hot paths so that the first real requests don't pay
+ * for class loading and interpretation.
+ * <p/>
+ * Requests run on a bounded {@link RequestWorkerPool} rather than Grizzly's default pool, so that a burst is queued
+ * only up to a limit and the {@link AdmissionController} sees how long requests waited for a worker.
  */
 public class Main {
     /** Base URI the Grizzly HTTP server will listen on */
     static final String BASE_URI = "http://localhost:8080/myapp/";
 
+    /** Set to <code>true</code> to discover resources by scanning the classpath (slower startup). */
+    static final String PROPERTY_CLASSPATH_SCANNING = "accountmanager.classpathScanning";
+    /** Number of warm-up iterations <code>main</code> runs before reporting readiness. */
+    static final String PROPERTY_WARMUP_ITERATIONS = "accountmanager.warmupIterations";
+    /** Set to <code>true</code> to exit right after warm-up, e.g. to dump a class-data-sharing archive. */
+    static final String PROPERTY_EXIT_AFTER_WARMUP = "accountmanager.exitAfterWarmup";
+
+    static final int DEFAULT_WARMUP_ITERATIONS = 2000;
+
+    /** Line printed once the server is ready to take requests. */
+    static final String READY_MESSAGE = "Jersey app started";
+
     /**
      * Starts Grizzly HTTP server exposing JAX-RS resources defined in this application.
      *
      * @return Grizzly HTTP server.
      */
-    static HttpServer startServer() {
-        /* Scan for resources in the package. */
-        final ResourceConfig rc = new ResourceConfig().packages("com.revolut");
+    static HttpServer startServer() throws IOException {
+        RequestWorkerPool workerPool = RequestWorkerPool.fromSystemProperties();
+        /* Create Grizzly HTTP server at BASE_URI, and start it once it runs requests on the bounded pool. */
+        HttpServer server = GrizzlyHttpServerFactory.createHttpServer(
+                URI.create(BASE_URI), createResourceConfig(workerPool), false);
+        for (NetworkListener listener : server.getListeners()) {
+            listener.getTransport().setWorkerThreadPool(workerPool);
+        }
+        try {
+            server.start();
+        } catch (IOException e) {
+            workerPool.shutdownNow();
+            throw e;
+        }
+        return server;
+    }
+
+    /**
+     * @param workerPool The pool requests run on, shut down with the server as Grizzly doesn't manage a pool it was
+     *                   given.
+     */
+    static ResourceConfig createResourceConfig(final ExecutorService workerPool) {
+        final AccountManagerAPI accountManagerAPI;
+        ResourceConfig config;
+        if (Boolean.getBoolean(PROPERTY_CLASSPATH_SCANNING)) {
+            /* Scan for resources in the package. */
+            accountManagerAPI = null;
+            config = new ResourceConfig().packages("com.revolut");
+        } else {
+            accountManagerAPI = new AccountManagerAPI();
+            config = new ResourceConfig()
+                    .register(accountManagerAPI)
+                    .register(ReadinessResource.class)
+                    .register(AccountJsonProvider.class)
+                    .register(ErrorBodyWriter.class);
+        }
+        return config.register(new ContainerLifecycleListener() {
+            @Override
+            public void onStartup(Container container) {
+            }
+
+            @Override
+            public void onReload(Container container) {
+            }
+
+            /* Called on server shutdown; the container doesn't manage the lifecycle of registered instances. */
+            @Override
+            public void onShutdown(Container container) {
+                try {
+                    if (accountManagerAPI != null) {
+                        accountManagerAPI.close();
+                    }
+                } finally {
+                    workerPool.shutdown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs <code>iterations</code> of the hot paths: every operation against a throwaway {@link AccountManagerAPI},
+     * the JSON codec, and requests through the HTTP stack of the running server that fail validation and so leave
+     * its state untouched.
+     */
+    static void warmUp(int iterations) throws IOException {
+        AccountManager warmupAccountManager =
+                new AccountManagerWithMoneyLimits(AccountManagerAPI.MIN_MONEY, AccountManagerAPI.MAX_MONEY);
+        AccountManagerAPI warmupApi = new AccountManagerAPI(
+                warmupAccountManager,
+                AdmissionController.fromSystemProperties(),
+                new TransferScheduler(warmupAccountManager, TransferScheduler.DEFAULT_TICK_MILLIS,
+                        TransferScheduler.DEFAULT_MAX_TRANSFERS_PER_SECOND, null));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            for (int i = 0; i < iterations; i++) {
+                Account first = (Account) warmupApi.openAccount(i).getEntity();
+                Account second = (Account) warmupApi.openAccount(i).getEntity();
+                warmupApi.openAccounts(i, 2);
+                warmupApi.deposit(first.getId(), 10);
+                warmupApi.transfer(first.getId(), second.getId(), 5);
+                warmupApi.withdraw(second.getId(), 5);
+                /* Fails on insufficient funds, to warm up the error path too. */
+                warmupApi.withdraw(second.getId(), 5);
+                warmupApi.getAccount(first.getId());
 
-        /* Create and start Grizzly HTTP server at BASE_URI. */
-        return GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URI), rc);
+                out.reset();
+                AccountJsonCodec.writeAccount(first, out);
+                AccountJsonCodec.readAccount(new ByteArrayInputStream(out.toByteArray()));
+            }
+        } finally {
+            warmupApi.close();
+        }
+
+        String noAccount = PARAM_ACCOUNT_ID + "=" + AdmissionController.NO_ACCOUNT;
+        for (int i = 0; i < iterations; i++) {
+            post(PATH_GET_ACCOUNT, noAccount);
+            post(PATH_DEPOSIT, noAccount + "&" + PARAM_MONEY + "=-1");
+        }
+    }
+
+    /** Posts a form to <code>path</code> of the local server and returns the status code. */
+    private static int post(String path, String form) throws IOException {
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL(BASE_URI + ACCOUNT_MANAGER + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(form.getBytes(StandardCharsets.US_ASCII));
+        }
+        int status = connection.getResponseCode();
+        /* Drain the body so the connection can be reused. */
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                byte[] buffer = new byte[256];
+                while (in.read(buffer) != -1) {
+                    /* Discard. */
+                }
+            }
+        }
+        return status;
     }
 
     public static void main(String[] args) throws IOException {
         final HttpServer server = startServer();
-        System.out.println(String.format("Jersey app started with WADL available at "
+        warmUp(Integer.getInteger(PROPERTY_WARMUP_ITERATIONS, DEFAULT_WARMUP_ITERATIONS));
+        if (Boolean.getBoolean(PROPERTY_EXIT_AFTER_WARMUP)) {
+            server.shutdownNow();
+            return;
+        }
+        ReadinessResource.setReady(true);
+        System.out.println(String.format(READY_MESSAGE + " with WADL available at "
                 + "%sapplication.wadl\nHit enter to stop it...", BASE_URI));
         System.in.read();
+        /* Stop attracting traffic before going away. */
+        ReadinessResource.setReady(false);
         server.shutdownNow();
     }
 }
-
@@ -0,0 +1,40 @@
+package com.revolut;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import static com.revolut.AccountManagerConstants.READY;
+
+/**
+ * Readiness probe exposed at {@link AccountManagerConstants#READY}, for load balancers and orchestrators to poll.
+ * <p/>
+ * Responds with 503 until {@link Main} has warmed up the hot paths, and with 200 afterwards. The account manager
+ * itself already serves requests during warm-up; the probe only tells when it is worth sending traffic.
+ */
+@Path(READY)
+public class ReadinessResource {
+    private static final String MESSAGE_READY = "Ready.";
+    private static final String MESSAGE_WARMING_UP = "Warming up, retry later.";
+
+    /** Shared by all instances, as classpath scanning creates its own instance per request. */
+    private static volatile boolean ready;
+
+    static void setReady(boolean ready) {
+        ReadinessResource.ready = ready;
+    }
+
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response getReadiness() {
+        if (ready) {
+            return Response.status(Response.Status.OK).entity(MESSAGE_READY).build();
+        }
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, AccountManagerAPI.RETRY_AFTER_SECONDS)
+                .entity(MESSAGE_WARMING_UP).build();
+    }
+}
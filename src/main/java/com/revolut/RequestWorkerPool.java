@@ -0,0 +1,87 @@
+package com.revolut;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed pool of worker threads that runs the HTTP requests in place of Grizzly's default pool, whose queue is
+ * unbounded.
+ * <p/>
+ * Requests beyond the worker threads wait in a queue of at most <code>queueLimit</code>; once it is full, Grizzly
+ * drops new connections instead of letting the backlog grow. Every task records when it was queued, so that the
+ * {@link AdmissionController} measures latency from the arrival of a request, including the time it waited for a
+ * worker (see {@link #getArrivalNanos()}).
+ */
+class RequestWorkerPool extends ThreadPoolExecutor {
+    static final String PROPERTY_THREADS = "accountmanager.workerThreads";
+    static final String PROPERTY_QUEUE_LIMIT = "accountmanager.workerQueueLimit";
+
+    static final int DEFAULT_THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+    static final int DEFAULT_QUEUE_LIMIT = 256;
+
+    /** When the task running on a worker thread was queued, in {@link System#nanoTime()}. */
+    private static final ThreadLocal<Long> ARRIVAL_NANOS = new ThreadLocal<>();
+
+    /**
+     * @param threads    The number of worker threads (must be positive).
+     * @param queueLimit The most requests that can wait for a worker (must be positive).
+     */
+    RequestWorkerPool(int threads, int queueLimit) {
+        super(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueLimit),
+                new ThreadFactory() {
+                    private final AtomicInteger nextThreadId = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "request-worker-" + nextThreadId.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Creates a pool configured from the <code>accountmanager.worker*</code> system properties, falling back to the
+     * defaults for the ones that are not set.
+     */
+    static RequestWorkerPool fromSystemProperties() {
+        return new RequestWorkerPool(getThreadsFromSystemProperties(),
+                Integer.getInteger(PROPERTY_QUEUE_LIMIT, DEFAULT_QUEUE_LIMIT));
+    }
+
+    /** Returns the number of worker threads configured by {@link #PROPERTY_THREADS}. */
+    static int getThreadsFromSystemProperties() {
+        return Integer.getInteger(PROPERTY_THREADS, DEFAULT_THREADS);
+    }
+
+    /**
+     * Returns when the task running on the current thread was queued, or now if the current thread is not a worker
+     * of a {@link RequestWorkerPool}.
+     */
+    static long getArrivalNanos() {
+        Long arrivalNanos = ARRIVAL_NANOS.get();
+        return arrivalNanos == null ? System.nanoTime() : arrivalNanos;
+    }
+
+    /**
+     * @throws java.util.concurrent.RejectedExecutionException if the queue is full.
+     */
+    @Override
+    public void execute(final Runnable task) {
+        final long arrivalNanos = System.nanoTime();
+        super.execute(new Runnable() {
+            @Override
+            public void run() {
+                ARRIVAL_NANOS.set(arrivalNanos);
+                try {
+                    task.run();
+                } finally {
+                    ARRIVAL_NANOS.remove();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,330 @@
+package com.revolut;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal that lets scheduled transfers survive restarts, including power loss: {@link #syncUpTo} forces
+ * the appended records to the disk.
+ * <p/>
+ * Records are appended and {@link #flush()}ed under the lock of the owner (the {@link TransferScheduler}), which keeps
+ * them in the order the changes took effect, while {@link #syncUpTo} runs outside of it, so that changes aren't
+ * serialized behind the disk. Syncs are group committed: one sync makes all records flushed before it durable, and
+ * the callers waiting meanwhile share the next one.
+ * <p/>
+ * Every change is appended as a record: {@link #RECORD_SCHEDULE} stores the full schedule (new, or moved to its
+ * next occurrence), {@link #RECORD_REMOVE} drops it (cancelled, or a one-off that was executed). The journal is
+ * compacted to one record per live schedule, preceded by a {@link #RECORD_NEXT_ID} record so that ids of removed
+ * schedules are never handed out again: on startup, and while running once the appended records outnumber the live
+ * schedules by {@link #COMPACTION_RATIO} (see {@link #needsCompaction}), so that recurring schedules don't grow the
+ * journal without bound. While running, the live schedules are written out from a snapshot without holding the lock
+ * of the owner, and the records appended meanwhile are carried over (see {@link #startCompaction}). A record
+ * truncated by a crash is ignored.
+ * <p/>
+ * Schedules refer to accounts by id, which are only meaningful to the {@link AccountManager} that handed them out. The
+ * compacted journal starts with a {@link #RECORD_EPOCH} record holding {@link AccountManager#getEpoch()}, and
+ * {@link #recover} drops all schedules if it doesn't match the current account manager, instead of moving money
+ * between unrelated accounts that reuse the ids.
+ */
+class ScheduleJournal implements Closeable {
+    static final byte RECORD_SCHEDULE = 'S';
+    static final byte RECORD_REMOVE = 'R';
+    static final byte RECORD_NEXT_ID = 'N';
+    static final byte RECORD_EPOCH = 'E';
+
+    /** Appended records per live schedule that trigger a compaction, which keeps compacting amortized O(1). */
+    static final int COMPACTION_RATIO = 2;
+    /** Appended records below which the journal is never compacted while running, however few schedules are live. */
+    static final int MIN_COMPACTION_RECORDS = 4096;
+
+    /** Offset passed to {@link #finishCompaction} when there are no records to carry over. */
+    private static final long NO_TAIL = -1;
+
+    private final File file;
+    /** Guards {@link #fileOut} against being replaced while it is synced, and {@link #syncedRecord}. */
+    private final Object syncLock = new Object();
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    /** Lowest schedule id that was never used, as of the last {@link #recover}. */
+    private long nextScheduleId = 0;
+    /** Epoch of the accounts the schedules refer to, as of the last {@link #recover}. */
+    private long epoch;
+    /** Schedules the last {@link #recover} dropped because they refer to the accounts of another epoch. */
+    private int discardedSchedules = 0;
+    private boolean closed = false;
+    /** Sequence number of the last appended record. */
+    private long lastRecord = 0;
+    /** Sequence number of the last record written through to the file, but not necessarily to the disk. */
+    private volatile long flushedRecord = 0;
+    /** Sequence number of the last record known to be on the disk. */
+    private long syncedRecord = 0;
+    /** Sequence number of the last record that the current compaction, or the last one, replaces. */
+    private long compactedRecord = 0;
+
+    /**
+     * @param file Where the journal is stored; created if it doesn't exist.
+     */
+    ScheduleJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Replays the journal, rewrites it with only the live schedules, and opens it for appending. Schedules journalled
+     * with a different account epoch than <code>epoch</code> (or without any) are dropped, but their ids are still
+     * never handed out again.
+     *
+     * @param epoch {@link AccountManager#getEpoch()} of the accounts the schedules are executed against.
+     * @return The live schedules.
+     */
+    List<ScheduledTransfer> recover(long epoch) throws IOException {
+        Map<Long, ScheduledTransfer> schedules = Maps.newLinkedHashMap();
+        Long journalEpoch = null;
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                journalEpoch = replay(in, schedules);
+            }
+        }
+        for (ScheduledTransfer schedule : schedules.values()) {
+            nextScheduleId = Math.max(nextScheduleId, schedule.getId() + 1);
+        }
+        if (journalEpoch == null || journalEpoch != epoch) {
+            discardedSchedules = schedules.size();
+            schedules.clear();
+        }
+        this.epoch = epoch;
+        finishCompaction(writeCompacted(schedules.values(), nextScheduleId), NO_TAIL);
+        return Lists.newArrayList(schedules.values());
+    }
+
+    /**
+     * Returns whether enough records were appended since the last compaction, compared to the
+     * <code>liveSchedules</code>, that the journal should be compacted.
+     */
+    boolean needsCompaction(int liveSchedules) {
+        long appendedRecords = lastRecord - compactedRecord;
+        return appendedRecords >= MIN_COMPACTION_RECORDS && appendedRecords >= (long) COMPACTION_RATIO * liveSchedules;
+    }
+
+    /**
+     * Starts a compaction, to be called under the lock of the owner together with taking a snapshot of the live
+     * schedules: the compacted journal is then written with {@link #writeCompacted} outside of the lock, and put in
+     * place with {@link #finishCompaction} under the lock again.
+     *
+     * @return The offset of the records that are appended after the snapshot, to carry over to the compacted journal.
+     */
+    long startCompaction() throws IOException {
+        flush();
+        compactedRecord = lastRecord;
+        return fileOut.getChannel().size();
+    }
+
+    /**
+     * Writes one record per schedule in <code>schedules</code> to a temporary file, and syncs it. Doesn't touch the
+     * journal itself, so it needs no lock; the schedules must not change meanwhile.
+     *
+     * @param nextScheduleId Lowest schedule id that was never used.
+     * @return The compacted journal, to pass to {@link #finishCompaction}.
+     */
+    File writeCompacted(Collection<ScheduledTransfer> schedules, long nextScheduleId) throws IOException {
+        File compacted = new File(file.getPath() + ".tmp");
+        try (FileOutputStream compactedFileOut = new FileOutputStream(compacted)) {
+            DataOutputStream compactedOut = new DataOutputStream(new BufferedOutputStream(compactedFileOut));
+            compactedOut.writeByte(RECORD_EPOCH);
+            compactedOut.writeLong(epoch);
+            compactedOut.writeByte(RECORD_NEXT_ID);
+            compactedOut.writeLong(nextScheduleId);
+            for (ScheduledTransfer schedule : schedules) {
+                writeSchedule(compactedOut, schedule, schedule.getExecuteAtMillis());
+            }
+            compactedOut.flush();
+            compactedFileOut.getFD().sync();
+        } catch (IOException e) {
+            compacted.delete();
+            throw e;
+        }
+        return compacted;
+    }
+
+    /**
+     * Appends the records from <code>tailOffset</code> of the journal to the <code>compacted</code> one, durably
+     * replaces the journal with it and reopens it for appending. To be called under the lock of the owner. If this
+     * fails before the journal is replaced, the journal is left as it was.
+     *
+     * @param tailOffset As returned by {@link #startCompaction}.
+     */
+    void finishCompaction(File compacted, long tailOffset) throws IOException {
+        try {
+            if (closed) {
+                throw new IOException("Schedule journal is closed.");
+            }
+            if (tailOffset != NO_TAIL) {
+                flush();
+                try (FileChannel journal = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                     FileOutputStream compactedFileOut = new FileOutputStream(compacted, true)) {
+                    long size = journal.size();
+                    for (long offset = tailOffset; offset < size; ) {
+                        offset += journal.transferTo(offset, size - offset, compactedFileOut.getChannel());
+                    }
+                    compactedFileOut.getFD().sync();
+                }
+            }
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            compacted.delete();
+            throw e;
+        }
+        boolean durable = false;
+        try {
+            /* The rename itself is durable only once the directory is synced. */
+            try (FileChannel directory =
+                         FileChannel.open(file.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ)) {
+                directory.force(true);
+            }
+            durable = true;
+        } finally {
+            /* Even if that fails, later records must go to the new journal rather than the replaced one. */
+            synchronized (syncLock) {
+                if (out != null) {
+                    out.close();
+                }
+                fileOut = new FileOutputStream(file, true);
+                out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                if (durable) {
+                    syncedRecord = lastRecord;
+                }
+            }
+        }
+    }
+
+    /** Returns the lowest schedule id that was never used, as of the last {@link #recover}. */
+    long getNextScheduleId() {
+        return nextScheduleId;
+    }
+
+    /** Returns how many schedules the last {@link #recover} dropped because of an account epoch mismatch. */
+    int getDiscardedSchedules() {
+        return discardedSchedules;
+    }
+
+    /** Appends the current state of <code>schedule</code>. {@link #flush()} and sync it to make it durable. */
+    void appendSchedule(ScheduledTransfer schedule) throws IOException {
+        appendSchedule(schedule, schedule.getExecuteAtMillis());
+    }
+
+    /**
+     * Appends <code>schedule</code> moved to <code>executeAtMillis</code>, before it is actually moved.
+     * {@link #flush()} and sync it to make it durable.
+     */
+    void appendSchedule(ScheduledTransfer schedule, long executeAtMillis) throws IOException {
+        writeSchedule(out, schedule, executeAtMillis);
+        lastRecord++;
+    }
+
+    /** Appends the removal of the schedule with <code>id</code>. {@link #flush()} and sync it to make it durable. */
+    void appendRemove(long id) throws IOException {
+        out.writeByte(RECORD_REMOVE);
+        out.writeLong(id);
+        lastRecord++;
+    }
+
+    /**
+     * Writes the appended records through to the file, in the order they were appended. To be called under the lock
+     * of the owner, right after appending.
+     *
+     * @return The sequence number of the last record, to pass to {@link #syncUpTo}.
+     */
+    long flush() throws IOException {
+        out.flush();
+        flushedRecord = lastRecord;
+        return lastRecord;
+    }
+
+    /**
+     * Makes the records up to sequence number <code>record</code> survive a crash or a power loss, unless another
+     * sync already did. Needs no lock; a sync in progress blocks this one, which then covers all records flushed
+     * meanwhile.
+     */
+    void syncUpTo(long record) throws IOException {
+        synchronized (syncLock) {
+            if (syncedRecord >= record) {
+                return;
+            }
+            long flushed = flushedRecord;
+            fileOut.getFD().sync();
+            syncedRecord = flushed;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            closed = true;
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Replays the records of <code>in</code> into <code>schedules</code>.
+     *
+     * @return The account epoch of the journal, or <code>null</code> if it has none.
+     */
+    private Long replay(DataInputStream in, Map<Long, ScheduledTransfer> schedules) throws IOException {
+        Long journalEpoch = null;
+        try {
+            while (true) {
+                int record = in.read();
+                if (record == -1) {
+                    return journalEpoch;
+                } else if (record == RECORD_SCHEDULE) {
+                    ScheduledTransfer schedule = new ScheduledTransfer(
+                            in.readLong(), in.readLong(), in.readLong(), in.readDouble(), in.readLong(), in.readLong());
+                    schedules.put(schedule.getId(), schedule);
+                } else if (record == RECORD_REMOVE) {
+                    long id = in.readLong();
+                    schedules.remove(id);
+                    nextScheduleId = Math.max(nextScheduleId, id + 1);
+                } else if (record == RECORD_NEXT_ID) {
+                    nextScheduleId = Math.max(nextScheduleId, in.readLong());
+                } else if (record == RECORD_EPOCH) {
+                    journalEpoch = in.readLong();
+                } else {
+                    throw new IOException("Corrupted schedule journal, unknown record " + record + ".");
+                }
+            }
+        } catch (EOFException e) {
+            /* The last record was only partially written before a crash. */
+            return journalEpoch;
+        }
+    }
+
+    private static void writeSchedule(DataOutputStream out, ScheduledTransfer schedule, long executeAtMillis)
+            throws IOException {
+        out.writeByte(RECORD_SCHEDULE);
+        out.writeLong(schedule.getId());
+        out.writeLong(schedule.getSourceAccountId());
+        out.writeLong(schedule.getTargetAccountId());
+        out.writeDouble(schedule.getMoney());
+        out.writeLong(executeAtMillis);
+        out.writeLong(schedule.getIntervalMillis());
+    }
+}
@@ -0,0 +1,78 @@
+package com.revolut;
+
+/**
+ * A one-off or recurring transfer scheduled with {@link TransferScheduler}. The schedule is its own entry in the
+ * {@link HierarchicalTimingWheel}, so a pending schedule costs a single object.
+ */
+class ScheduledTransfer extends HierarchicalTimingWheel.Timer {
+    private final long id;
+    private final long sourceAccountId;
+    private final long targetAccountId;
+    private final double money;
+    private final long intervalMillis;
+    private long executeAtMillis;
+
+    /**
+     * @param id              A unique schedule identifier.
+     * @param sourceAccountId The account to transfer the <code>money</code> from.
+     * @param targetAccountId The account to transfer the <code>money</code> to.
+     * @param money           Amount of positive money to transfer.
+     * @param executeAtMillis When to execute the (next) transfer, in milliseconds since the epoch.
+     * @param intervalMillis  Interval between recurring transfers, or zero for a one-off transfer.
+     */
+    ScheduledTransfer(long id, long sourceAccountId, long targetAccountId, double money,
+                      long executeAtMillis, long intervalMillis) {
+        this.id = id;
+        this.sourceAccountId = sourceAccountId;
+        this.targetAccountId = targetAccountId;
+        this.money = money;
+        this.executeAtMillis = executeAtMillis;
+        this.intervalMillis = intervalMillis;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    long getSourceAccountId() {
+        return sourceAccountId;
+    }
+
+    long getTargetAccountId() {
+        return targetAccountId;
+    }
+
+    double getMoney() {
+        return money;
+    }
+
+    long getExecuteAtMillis() {
+        return executeAtMillis;
+    }
+
+    long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    boolean isRecurring() {
+        return intervalMillis > 0;
+    }
+
+    void setExecuteAtMillis(long executeAtMillis) {
+        this.executeAtMillis = executeAtMillis;
+    }
+
+    /**
+     * Returns the first occurrence of a recurring transfer after <code>nowMillis</code>. Occurrences missed while the
+     * service was down or behind are skipped rather than executed in a burst.
+     * <p/>
+     * The result is at most <code>nowMillis + intervalMillis</code>, which {@link TransferScheduler} keeps from
+     * overflowing by bounding both the execution time and the interval.
+     */
+    long getNextOccurrenceAfter(long nowMillis) {
+        if (executeAtMillis > nowMillis) {
+            return executeAtMillis;
+        }
+        return executeAtMillis + intervalMillis * ((nowMillis - executeAtMillis) / intervalMillis + 1);
+    }
+}
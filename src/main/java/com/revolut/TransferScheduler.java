@@ -0,0 +1,451 @@
+package com.revolut;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs one-off and recurring transfers against an {@link AccountManager} at a future time.
+ * <p/>
+ * Pending schedules are kept in a {@link HierarchicalTimingWheel}, so scheduling and cancelling are O(1). A
+ * background thread advances the wheel every <code>tickMillis</code> and executes the due transfers in batches of at
+ * most <code>maxTransfersPerSecond * tickMillis / 1000</code>, so that schedules due at the same moment (e.g. at the
+ * top of the hour) are spread out instead of hitting the account manager all at once. Transfers that fail (e.g.
+ * insufficient funds) are skipped; recurring ones still run at their next occurrence.
+ * <p/>
+ * When a journal is configured, schedules survive restarts and power loss: every change is synced to the disk before
+ * it is acknowledged. The sync happens outside of the scheduler lock and is shared by the changes made meanwhile
+ * (group commit), so concurrent changes don't queue up behind the disk. A due transfer is synced to the journal
+ * before it is executed, so a crash can skip an execution but never repeat one. The journal is compacted on the
+ * scheduler thread once recurring transfers have appended enough records to it, from a snapshot of the schedules
+ * taken under the lock and written out without it. Schedules survive only as long as the accounts they refer to: on
+ * a restart with a new account manager (different {@link AccountManager#getEpoch()}), the journalled schedules are
+ * dropped.
+ */
+class TransferScheduler implements AutoCloseable {
+    static final String PROPERTY_JOURNAL = "accountmanager.schedule.journal";
+    static final String PROPERTY_TICK_MILLIS = "accountmanager.schedule.tickMillis";
+    static final String PROPERTY_MAX_TRANSFERS_PER_SECOND = "accountmanager.schedule.maxTransfersPerSecond";
+
+    static final long DEFAULT_TICK_MILLIS = 100;
+    static final int DEFAULT_MAX_TRANSFERS_PER_SECOND = 10000;
+
+    /** Latest time a transfer can be scheduled at (the start of year 10000), far from overflowing the tick math. */
+    static final long MAX_EXECUTE_AT_MILLIS = 253402300800000L;
+    /** Longest interval of a recurring transfer (about 10 years). */
+    static final long MAX_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(3660);
+
+    private static final Logger LOGGER = Logger.getLogger(TransferScheduler.class.getName());
+
+    /** How long {@link #close()} waits for a batch that is being executed. */
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    private static final String MESSAGE_SCHEDULE_DOES_NOT_EXIST =
+            "Scheduled transfer does not exist.";
+    private static final String MESSAGE_MONEY_MUST_BE_POSITIVE =
+            "Specified money must be a positive finite number.";
+    private static final String MESSAGE_SOURCE_AND_TARGET_ACCOUNTS_MUST_BE_DIFFERENT =
+            "Source and target accounts must be different.";
+    private static final String MESSAGE_INVALID_EXECUTE_AT =
+            "Execution time must be positive and before year 10000.";
+    private static final String MESSAGE_INVALID_INTERVAL =
+            "Interval must be zero for a one-off transfer, or between the scheduler tick and 10 years.";
+
+    private final AccountManager accountManager;
+    private final long tickMillis;
+    private final int transfersPerTick;
+    private final ScheduleJournal journal;
+
+    /** Maps from schedule id to the pending {@link ScheduledTransfer}. */
+    private final Map<Long, ScheduledTransfer> schedules = Maps.newHashMap();
+    private final HierarchicalTimingWheel<ScheduledTransfer> wheel;
+    private long nextScheduleId = 0;
+    /** Whether a compaction of the journal is in progress. */
+    private boolean compacting = false;
+
+    /** Runs {@link #runDueTransfers} every tick once {@link #start()}ed. */
+    private ScheduledExecutorService executor;
+    /** Why the last tick of the background thread failed, or <code>null</code> if it succeeded. */
+    private volatile RuntimeException tickFailure;
+
+    /**
+     * @param accountManager        Account manager to execute the transfers against.
+     * @param tickMillis            Resolution of the schedules (must be positive).
+     * @param maxTransfersPerSecond The maximum rate scheduled transfers are executed at (must be positive).
+     * @param journalFile           Where to persist the schedules, or <code>null</code> to keep them in memory only.
+     */
+    TransferScheduler(AccountManager accountManager, long tickMillis, int maxTransfersPerSecond, File journalFile)
+            throws IOException {
+        Preconditions.checkArgument(tickMillis > 0);
+        Preconditions.checkArgument(maxTransfersPerSecond > 0);
+        this.accountManager = accountManager;
+        this.tickMillis = tickMillis;
+        this.transfersPerTick = (int) Math.max(1, maxTransfersPerSecond * tickMillis / 1000);
+        this.wheel = new HierarchicalTimingWheel<>(System.currentTimeMillis() / tickMillis);
+
+        if (journalFile != null) {
+            journal = new ScheduleJournal(journalFile);
+            for (ScheduledTransfer schedule : journal.recover(accountManager.getEpoch())) {
+                schedules.put(schedule.getId(), schedule);
+                schedule.expirationTick = toTick(schedule.getExecuteAtMillis());
+                wheel.add(schedule);
+            }
+            nextScheduleId = journal.getNextScheduleId();
+            if (journal.getDiscardedSchedules() > 0) {
+                LOGGER.warning("Discarded " + journal.getDiscardedSchedules() + " scheduled transfers of accounts "
+                        + "that no longer exist");
+            }
+        } else {
+            journal = null;
+        }
+    }
+
+    /**
+     * Creates and starts a scheduler configured from the <code>accountmanager.schedule.*</code> system properties,
+     * falling back to the defaults for the ones that are not set. Schedules are persisted only if a journal is
+     * configured.
+     */
+    static TransferScheduler fromSystemProperties(AccountManager accountManager) {
+        String journal = System.getProperty(PROPERTY_JOURNAL);
+        try {
+            TransferScheduler scheduler = new TransferScheduler(
+                    accountManager,
+                    Long.getLong(PROPERTY_TICK_MILLIS, DEFAULT_TICK_MILLIS),
+                    Integer.getInteger(PROPERTY_MAX_TRANSFERS_PER_SECOND, DEFAULT_MAX_TRANSFERS_PER_SECOND),
+                    journal == null ? null : new File(journal));
+            scheduler.start();
+            return scheduler;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to recover scheduled transfers from " + journal, e);
+        }
+    }
+
+    /**
+     * Schedules a transfer of <code>money</code> from <code>sourceAccountId</code> to <code>targetAccountId</code>
+     * at <code>executeAtMillis</code>, repeated every <code>intervalMillis</code> if that is positive.
+     *
+     * @return The id of the schedule, to cancel it with.
+     * @throws AccountManager.AccountOperationException if an account doesn't exist, accounts are the same, money is
+     *                                                   not positive, the execution time is not positive or too far
+     *                                                   in the future, or the interval is shorter than the scheduler
+     *                                                   tick or longer than {@link #MAX_INTERVAL_MILLIS}.
+     */
+    long schedule(long sourceAccountId, long targetAccountId, double money, long executeAtMillis, long intervalMillis)
+            throws AccountManager.AccountOperationException {
+        if (!(money > 0.0) || Double.isInfinite(money)) {
+            throw new AccountManager.AccountOperationException(MESSAGE_MONEY_MUST_BE_POSITIVE);
+        }
+        if (sourceAccountId == targetAccountId) {
+            throw new AccountManager.AccountOperationException(MESSAGE_SOURCE_AND_TARGET_ACCOUNTS_MUST_BE_DIFFERENT);
+        }
+        if (executeAtMillis <= 0 || executeAtMillis > MAX_EXECUTE_AT_MILLIS) {
+            throw new AccountManager.AccountOperationException(MESSAGE_INVALID_EXECUTE_AT);
+        }
+        if (intervalMillis != 0 && (intervalMillis < tickMillis || intervalMillis > MAX_INTERVAL_MILLIS)) {
+            throw new AccountManager.AccountOperationException(MESSAGE_INVALID_INTERVAL);
+        }
+        accountManager.getAccount(sourceAccountId);
+        accountManager.getAccount(targetAccountId);
+
+        ScheduledTransfer schedule;
+        long record = 0;
+        synchronized (this) {
+            schedule = new ScheduledTransfer(
+                    nextScheduleId++, sourceAccountId, targetAccountId, money, executeAtMillis, intervalMillis);
+            if (journal != null) {
+                try {
+                    journal.appendSchedule(schedule);
+                    record = journal.flush();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to persist scheduled transfer", e);
+                }
+            }
+            /*
+             * Pending before it is synced: it can't be executed before that anyway, as executing it syncs the journal
+             * up to a later record first.
+             */
+            schedules.put(schedule.getId(), schedule);
+            schedule.expirationTick = toTick(executeAtMillis);
+            wheel.add(schedule);
+        }
+        if (journal != null) {
+            try {
+                journal.syncUpTo(record);
+            } catch (IOException e) {
+                unschedule(schedule);
+                throw new IllegalStateException("Unable to persist scheduled transfer", e);
+            }
+        }
+        return schedule.getId();
+    }
+
+    /**
+     * Takes back a schedule that couldn't be synced to the journal, unless it has already run. Its removal is
+     * journalled too, without waiting for the disk, in case the schedule reaches the disk after all.
+     */
+    private synchronized void unschedule(ScheduledTransfer schedule) {
+        if (schedules.remove(schedule.getId()) != null) {
+            wheel.remove(schedule);
+            try {
+                journal.appendRemove(schedule.getId());
+                journal.flush();
+            } catch (IOException e) {
+                /* The journal is failing already, which the caller reports. */
+            }
+        }
+    }
+
+    /**
+     * Cancels the schedule with <code>scheduleId</code>, including all future occurrences of a recurring transfer.
+     * An occurrence that {@link #runDueTransfers} has already taken for execution still runs: it is committed to in
+     * the journal before the transfer is executed outside of the scheduler lock.
+     * <p/>
+     * The cancellation takes effect right away; if it can't be synced to the journal, it may be undone by a restart.
+     *
+     * @throws AccountManager.AccountOperationException if the schedule doesn't exist (or a one-off transfer was
+     *                                                   already executed).
+     */
+    void cancel(long scheduleId) throws AccountManager.AccountOperationException {
+        long record = 0;
+        synchronized (this) {
+            ScheduledTransfer schedule = schedules.get(scheduleId);
+            if (schedule == null) {
+                throw new AccountManager.AccountOperationException(MESSAGE_SCHEDULE_DOES_NOT_EXIST);
+            }
+            if (journal != null) {
+                try {
+                    journal.appendRemove(scheduleId);
+                    record = journal.flush();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to persist cancelled transfer", e);
+                }
+            }
+            schedules.remove(scheduleId);
+            wheel.remove(schedule);
+        }
+        if (journal != null) {
+            try {
+                journal.syncUpTo(record);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to persist cancelled transfer", e);
+            }
+        }
+    }
+
+    /** Returns the number of schedules that haven't completed (pending, due, or recurring). */
+    synchronized int size() {
+        return schedules.size();
+    }
+
+    /**
+     * Executes at most one batch of the transfers due at <code>nowMillis</code>. Due transfers that don't fit in the
+     * batch stay first in line for the next call. If the batch can't be synced to the journal, it is skipped, as if
+     * the service crashed right before executing it.
+     *
+     * @return The number of transfers attempted.
+     */
+    int runDueTransfers(long nowMillis) {
+        ScheduledTransfer[] batch = new ScheduledTransfer[transfersPerTick];
+        int count = 0;
+        long record = 0;
+
+        synchronized (this) {
+            wheel.advanceTo(nowMillis / tickMillis);
+            ScheduledTransfer schedule;
+            while (count < transfersPerTick && (schedule = wheel.pollExpired()) != null) {
+                batch[count++] = schedule;
+            }
+            if (journal != null && count > 0) {
+                record = journalBatch(batch, count, nowMillis);
+            }
+            for (int i = 0; i < count; i++) {
+                schedule = batch[i];
+                if (schedule.isRecurring()) {
+                    schedule.setExecuteAtMillis(schedule.getNextOccurrenceAfter(nowMillis));
+                    schedule.expirationTick = toTick(schedule.getExecuteAtMillis());
+                    wheel.add(schedule);
+                } else {
+                    schedules.remove(schedule.getId());
+                }
+            }
+        }
+
+        if (journal != null && count > 0) {
+            try {
+                journal.syncUpTo(record);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to persist executed transfers", e);
+            }
+        }
+
+        /* Outside of the scheduler lock, so that scheduling isn't blocked by the account manager. */
+        for (int i = 0; i < count; i++) {
+            try {
+                accountManager.transfer(batch[i].getSourceAccountId(), batch[i].getTargetAccountId(),
+                        batch[i].getMoney());
+            } catch (AccountManager.AccountOperationException e) {
+                /* Skipped, e.g. insufficient funds at the time of the transfer. */
+            }
+        }
+
+        /* After executing the batch, so that a failed compaction doesn't hold it back. */
+        if (journal != null) {
+            compactJournalIfNeeded();
+        }
+        return count;
+    }
+
+    /**
+     * Journals the execution of the polled <code>batch</code> before any of it takes effect. If that fails, the batch
+     * is put back on the wheel, still due, so that the schedules keep matching the journal.
+     *
+     * @return The journal record to sync before executing the batch.
+     */
+    private long journalBatch(ScheduledTransfer[] batch, int count, long nowMillis) {
+        try {
+            for (int i = 0; i < count; i++) {
+                if (batch[i].isRecurring()) {
+                    journal.appendSchedule(batch[i], batch[i].getNextOccurrenceAfter(nowMillis));
+                } else {
+                    journal.appendRemove(batch[i].getId());
+                }
+            }
+            return journal.flush();
+        } catch (IOException e) {
+            for (int i = 0; i < count; i++) {
+                wheel.add(batch[i]);
+            }
+            throw new IllegalStateException("Unable to persist executed transfers", e);
+        }
+    }
+
+    /**
+     * Compacts the journal if needed. Only taking the snapshot and putting the compacted journal in place hold the
+     * scheduler lock; writing the snapshot out and syncing it don't.
+     */
+    private void compactJournalIfNeeded() {
+        List<ScheduledTransfer> snapshot;
+        long snapshotNextScheduleId;
+        long tailOffset;
+        synchronized (this) {
+            if (compacting || !journal.needsCompaction(schedules.size())) {
+                return;
+            }
+            /* Copies, as recurring schedules move on while the snapshot is written out. */
+            snapshot = Lists.newArrayListWithCapacity(schedules.size());
+            for (ScheduledTransfer schedule : schedules.values()) {
+                snapshot.add(new ScheduledTransfer(schedule.getId(), schedule.getSourceAccountId(),
+                        schedule.getTargetAccountId(), schedule.getMoney(), schedule.getExecuteAtMillis(),
+                        schedule.getIntervalMillis()));
+            }
+            snapshotNextScheduleId = nextScheduleId;
+            try {
+                tailOffset = journal.startCompaction();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to compact the scheduled transfer journal", e);
+            }
+            compacting = true;
+        }
+        try {
+            File compacted = journal.writeCompacted(snapshot, snapshotNextScheduleId);
+            synchronized (this) {
+                journal.finishCompaction(compacted, tailOffset);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to compact the scheduled transfer journal", e);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Stops executing transfers, waits for the batch in progress (if any) and closes the journal, so that another
+     * scheduler can take the journal over. Safe to call more than once.
+     */
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+        }
+        /* Not under the lock, as the batch in progress needs it to complete. */
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Starts executing due transfers on a background daemon thread every tick. Until then, transfers only run on
+     * explicit calls to {@link #runDueTransfers}.
+     */
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "transfer-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runDueTransfers(System.currentTimeMillis());
+                    if (tickFailure != null) {
+                        tickFailure = null;
+                        LOGGER.info("Scheduled transfers are running again");
+                    }
+                } catch (RuntimeException e) {
+                    /* Keep ticking; an exception would cancel all future runs. Reported once per failing streak. */
+                    if (tickFailure == null) {
+                        LOGGER.log(Level.WARNING, "Scheduled transfers are failing, retrying every tick", e);
+                    }
+                    tickFailure = e;
+                }
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns why the last tick of the background thread failed (e.g. the journal can't be written), or
+     * <code>null</code> if it succeeded. A failure is logged only when ticks start failing, not on every tick.
+     */
+    RuntimeException getTickFailure() {
+        return tickFailure;
+    }
+
+    /**
+     * Schedules are rounded up to the next tick while the wheel advances to the last completed tick, so that a
+     * transfer never runs early.
+     */
+    private long toTick(long millis) {
+        return millis <= 0 ? 0 : (millis + tickMillis - 1) / tickMillis;
+    }
+}
@@ -0,0 +1,200 @@
+package com.revolut;
+
+import com.google.common.collect.Lists;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AccountJsonCodecTest {
+    private static final double EPSILON = 1e-7;
+
+    @Test
+    public void accountShouldBeEncodedInTheSameShapeAsJsonb() throws Exception {
+        assertEquals("{\"id\":1,\"money\":1000.0,\"ownerId\":123}", encode(new Account(1, 123, 1000.0)));
+        assertEquals("{\"id\":-5,\"money\":-0.25,\"ownerId\":" + Long.MIN_VALUE + "}",
+                encode(new Account(-5, Long.MIN_VALUE, -0.25)));
+        assertEquals("{\"id\":0,\"money\":-3.0,\"ownerId\":0}", encode(new Account(0, 0, -3.0)));
+        assertEquals("{\"id\":0,\"money\":-0.0,\"ownerId\":0}", encode(new Account(0, 0, -0.0)));
+    }
+
+    @Test
+    public void encodingNonFiniteMoneyShouldFail() throws Exception {
+        double[] moneys = {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double money : moneys) {
+            try {
+                encode(new Account(1, 2, money));
+                throw new AssertionError("Expected " + money + " to be rejected");
+            } catch (IOException e) {
+                /* Expected. */
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void decodingOutOfRangeMoneyShouldFail() throws Exception {
+        AccountJsonCodec.readAccount(toStream("{\"id\":1,\"money\":1e400,\"ownerId\":7}"));
+    }
+
+    @Test
+    public void encodedAccountShouldDecodeToTheSameAccount() throws Exception {
+        double[] moneys = {0.0, -0.0, 1e6, 0.1, 123.456, -999.5, 1e20, 4.9e-324};
+        for (double money : moneys) {
+            Account account = new Account(Long.MAX_VALUE, 42, money);
+            Account decoded = AccountJsonCodec.readAccount(toStream(encode(account)));
+            assertEquals(account.getId(), decoded.getId());
+            assertEquals(account.getOwnerId(), decoded.getOwnerId());
+            assertEquals(Double.doubleToLongBits(money), Double.doubleToLongBits(decoded.getMoney()));
+        }
+    }
+
+    @Test
+    public void decodingShouldAcceptWhitespaceAnyKeyOrderAndUnknownFields() throws Exception {
+        Account account = AccountJsonCodec.readAccount(toStream(
+                " {\n \"ownerId\" : 7 , \"extra\":\"x\\\"y\", \"flag\" : true,\"money\":1.5E2, \"none\":null,\"id\":3 }\n"));
+        assertEquals(3, account.getId());
+        assertEquals(7, account.getOwnerId());
+        assertEquals(150.0, account.getMoney(), EPSILON);
+    }
+
+    @Test(expected = IOException.class)
+    public void decodingAccountWithoutIdShouldFail() throws Exception {
+        AccountJsonCodec.readAccount(toStream("{\"ownerId\":7,\"money\":0.0}"));
+    }
+
+    @Test(expected = IOException.class)
+    public void decodingTruncatedAccountShouldFail() throws Exception {
+        AccountJsonCodec.readAccount(toStream("{\"id\":1,\"ownerId\":7"));
+    }
+
+    @Test(expected = IOException.class)
+    public void decodingTrailingGarbageShouldFail() throws Exception {
+        AccountJsonCodec.readAccount(toStream("{\"id\":1,\"ownerId\":7} x"));
+    }
+
+    @Test
+    public void encodedAccountListShouldDecodeToTheSameAccounts() throws Exception {
+        List<Account> accounts = Lists.newArrayList();
+        /* Enough accounts to flush the write buffer several times. */
+        for (int i = 0; i < 1000; i++) {
+            accounts.add(new Account(i, i % 7, i * 0.5));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AccountJsonCodec.writeAccounts(accounts, out);
+
+        List<Account> decoded = AccountJsonCodec.readAccounts(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(accounts.size(), decoded.size());
+        for (int i = 0; i < accounts.size(); i++) {
+            assertEquals(accounts.get(i).getId(), decoded.get(i).getId());
+            assertEquals(accounts.get(i).getOwnerId(), decoded.get(i).getOwnerId());
+            assertEquals(accounts.get(i).getMoney(), decoded.get(i).getMoney(), EPSILON);
+        }
+    }
+
+    @Test
+    public void emptyAccountListShouldRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AccountJsonCodec.writeAccounts(Lists.<Account>newArrayList(), out);
+        assertEquals("[]", new String(out.toByteArray(), StandardCharsets.US_ASCII));
+        assertTrue(AccountJsonCodec.readAccounts(toStream(" [ ] ")).isEmpty());
+    }
+
+    @Test
+    public void codecAndJsonbShouldReadEachOther() throws Exception {
+        Jsonb jsonb = JsonbBuilder.create();
+        Account account = new Account(9, 11, 12.75);
+
+        Account fromCodec = jsonb.fromJson(encode(account), Account.class);
+        assertEquals(account.getId(), fromCodec.getId());
+        assertEquals(account.getMoney(), fromCodec.getMoney(), EPSILON);
+
+        Account fromJsonb = AccountJsonCodec.readAccount(toStream(jsonb.toJson(account)));
+        assertEquals(account.getOwnerId(), fromJsonb.getOwnerId());
+        assertEquals(account.getMoney(), fromJsonb.getMoney(), EPSILON);
+    }
+
+    @Test
+    public void codecShouldWriteTheSameTextAsJsonb() throws Exception {
+        Jsonb jsonb = JsonbBuilder.create();
+        double[] moneys = {0.0, -0.0, 1.0, -3.0, 0.25, 9999999.0, 1e7, -1e7, 1.5e7, 123456789.0, 1e15, 1e20, 1e-5};
+        for (double money : moneys) {
+            Account account = new Account(1, 2, money);
+            assertEquals(jsonb.toJson(account), encode(account));
+        }
+    }
+
+    @Test
+    public void errorBodyShouldBeEncodedOnceAndReused() {
+        ErrorBody body = ErrorBody.of("Account does not exist.");
+        assertTrue(body == ErrorBody.of("Account does not exist."));
+        assertEquals("Account does not exist.", new String(body.getBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @Ignore("Performance test")
+    public void testCodecAgainstJsonb() throws Exception {
+        final int ITERATIONS = 2000000;
+        final int ROUNDS = 5;
+        Jsonb jsonb = JsonbBuilder.create();
+        Account account = new Account(123456789, 42, 1000.0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        long sink = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long timestamp = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                out.reset();
+                jsonb.toJson(account, out);
+                sink += out.size();
+            }
+            long jsonbNanos = System.nanoTime() - timestamp;
+
+            timestamp = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                out.reset();
+                AccountJsonCodec.writeAccount(account, out);
+                sink += out.size();
+            }
+            long codecNanos = System.nanoTime() - timestamp;
+
+            byte[] encoded = out.toByteArray();
+            timestamp = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += jsonb.fromJson(new ByteArrayInputStream(encoded), Account.class).getId();
+            }
+            long jsonbReadNanos = System.nanoTime() - timestamp;
+
+            timestamp = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += AccountJsonCodec.readAccount(new ByteArrayInputStream(encoded)).getId();
+            }
+            long codecReadNanos = System.nanoTime() - timestamp;
+
+            System.out.println("Round " + round
+                    + ": write ns/op JSON-B " + jsonbNanos / ITERATIONS + ", codec " + codecNanos / ITERATIONS
+                    + "; read ns/op JSON-B " + jsonbReadNanos / ITERATIONS + ", codec " + codecReadNanos / ITERATIONS);
+        }
+        System.out.println("Checksum " + sink);
+    }
+
+    private static String encode(Account account) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AccountJsonCodec.writeAccount(account, out);
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -13,19 +13,26 @@ import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static com.revolut.AccountManagerConstants.ACCOUNT_MANAGER;
+import static com.revolut.AccountManagerConstants.PATH_CANCEL_SCHEDULED_TRANSFER;
 import static com.revolut.AccountManagerConstants.PATH_DEPOSIT;
 import static com.revolut.AccountManagerConstants.PATH_GET_ACCOUNT;
 import static com.revolut.AccountManagerConstants.PATH_OPEN_ACCOUNT;
+import static com.revolut.AccountManagerConstants.PATH_OPEN_ACCOUNTS;
+import static com.revolut.AccountManagerConstants.PATH_OPEN_ACCOUNTS_FOR_OWNERS;
+import static com.revolut.AccountManagerConstants.PATH_SCHEDULE_TRANSFER;
 import static com.revolut.AccountManagerConstants.PATH_TRANSFER;
 import static com.revolut.AccountManagerConstants.PATH_WITHDRAW;
+import static com.revolut.AccountManagerConstants.READY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
@@ -64,6 +71,31 @@ public class AccountManagerTest {
         assertNotSame(firstAccount.getId(), secondAccount.getId());
     }
 
+    @Test
+    public void whenAccountsAreOpenedInBulkTheyShouldHaveDifferentIds() {
+        List<Account> accounts = openAccountsForOwner(TEST_OWNER_ID, 10);
+        assertEquals(10, accounts.size());
+        for (int i = 0; i < accounts.size(); i++) {
+            assertEquals(TEST_OWNER_ID, accounts.get(i).getOwnerId());
+            assertEquals(accounts.get(0).getId() + i, accounts.get(i).getId());
+            assertEquals(accounts.get(i).getId(), getAccount(accounts.get(i).getId()).getId());
+        }
+    }
+
+    @Test
+    public void whenAccountsAreOpenedForSeveralOwnersEachOwnerShouldGetAnAccount() {
+        List<Account> accounts = openAccountsForOwners(TEST_OWNER_ID, TEST_OWNER_ID + 1);
+        assertEquals(2, accounts.size());
+        assertEquals(TEST_OWNER_ID, accounts.get(0).getOwnerId());
+        assertEquals(TEST_OWNER_ID + 1, accounts.get(1).getOwnerId());
+        assertNotSame(accounts.get(0).getId(), accounts.get(1).getId());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void whenZeroAccountsAreOpenedInBulkShouldFail() {
+        openAccountsForOwner(TEST_OWNER_ID, 0);
+    }
+
     @Test
     public void whenMoneyDepositedShouldShouldTheSameMoneyInTheAccount() {
         Account account = openAccountForOwner(TEST_OWNER_ID);
@@ -157,6 +189,57 @@ public class AccountManagerTest {
         transfer(account.getId(), account.getId(), 20);
     }
 
+    @Test
+    public void whenScheduledTransferIsDueItShouldBeExecuted() throws Exception {
+        Account firstAccount = openAccountForOwner(TEST_OWNER_ID);
+        Account secondAccount = openAccountForOwner(TEST_OWNER_ID);
+        deposit(firstAccount.getId(), 100);
+
+        scheduleTransfer(firstAccount.getId(), secondAccount.getId(), 20, System.currentTimeMillis(), 0);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getAccount(secondAccount.getId()).getMoney() < 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(80.0, getAccount(firstAccount.getId()).getMoney(), EPSILON);
+        assertEquals(20.0, getAccount(secondAccount.getId()).getMoney(), EPSILON);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void whenScheduledTransferIsCancelledTwiceShouldFail() {
+        Account firstAccount = openAccountForOwner(TEST_OWNER_ID);
+        Account secondAccount = openAccountForOwner(TEST_OWNER_ID);
+        long scheduleId = scheduleTransfer(firstAccount.getId(), secondAccount.getId(), 20,
+                System.currentTimeMillis() + 3600000, 86400000);
+
+        cancelScheduledTransfer(scheduleId);
+        cancelScheduledTransfer(scheduleId);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void whenTransferIsScheduledInTheSameAccountShouldFail() {
+        Account account = openAccountForOwner(TEST_OWNER_ID);
+        scheduleTransfer(account.getId(), account.getId(), 20, System.currentTimeMillis(), 0);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void whenTransferIsScheduledWithoutExecutionTimeShouldFail() {
+        Account firstAccount = openAccountForOwner(TEST_OWNER_ID);
+        Account secondAccount = openAccountForOwner(TEST_OWNER_ID);
+        scheduleTransfer(firstAccount.getId(), secondAccount.getId(), 20, null, 0);
+    }
+
+    @Test
+    public void readinessProbeShouldFailUntilReadinessIsReported() {
+        try {
+            assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), getReadinessStatus());
+            ReadinessResource.setReady(true);
+            assertEquals(Response.Status.OK.getStatusCode(), getReadinessStatus());
+        } finally {
+            ReadinessResource.setReady(false);
+        }
+    }
+
     @Test(expected = BadRequestException.class)
     public void whenNegativeMoneyDepositAttemptedShouldFail() {
         Account account = openAccountForOwner(TEST_OWNER_ID);
@@ -237,6 +320,92 @@ public class AccountManagerTest {
         System.out.println("Created " + ACCOUNTS_TO_CREATE * THREADS_TO_CREATE + " accounts in " + timeTakenMillis + " millis");
     }
 
+    /** Transfers back and forth between two accounts, recording the latency of every request. */
+    private final class TransferUnderOverload implements Runnable {
+        private final long firstAccountId;
+        private final long secondAccountId;
+        private final long[] latenciesNanos;
+        private int rejected;
+
+        TransferUnderOverload(long firstAccountId, long secondAccountId, int requests) {
+            this.firstAccountId = firstAccountId;
+            this.secondAccountId = secondAccountId;
+            this.latenciesNanos = new long[requests];
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < latenciesNanos.length; i++) {
+                MultivaluedMap<String, String> formData = new MultivaluedHashMap<>();
+                formData.add(AccountManagerConstants.PARAM_SOURCE_ACCOUNT_ID,
+                        Long.toString(i % 2 == 0 ? firstAccountId : secondAccountId));
+                formData.add(AccountManagerConstants.PARAM_TARGET_ACCOUNT_ID,
+                        Long.toString(i % 2 == 0 ? secondAccountId : firstAccountId));
+                formData.add(AccountManagerConstants.PARAM_MONEY, "1");
+                long startNanos = System.nanoTime();
+                Response response = getRequest(PATH_TRANSFER).post(Entity.form(formData));
+                latenciesNanos[i] = System.nanoTime() - startNanos;
+                if (response.getStatus() == AdmissionController.STATUS_SERVICE_UNAVAILABLE
+                        || response.getStatus() == AdmissionController.STATUS_TOO_MANY_REQUESTS) {
+                    rejected++;
+                }
+                response.close();
+            }
+        }
+    }
+
+    @Test
+    @Ignore("Performance test")
+    public void testLatencyUnderOverloadWithAdmissionControl() throws Exception {
+        final int THREADS_TO_CREATE = 256;
+        final int REQUESTS_PER_THREAD = 500;
+
+        /* Restart the server with few workers, and so a tight in-flight limit, so that 256 clients overload it. */
+        server.shutdownNow();
+        System.setProperty(RequestWorkerPool.PROPERTY_THREADS, "16");
+        System.setProperty(AdmissionController.PROPERTY_MIN_IN_FLIGHT, "4");
+        System.setProperty(AdmissionController.PROPERTY_TARGET_LATENCY_MILLIS, "5");
+        try {
+            server = Main.startServer();
+
+            Account firstAccount = openAccountForOwner(TEST_OWNER_ID);
+            Account secondAccount = openAccountForOwner(TEST_OWNER_ID);
+            deposit(firstAccount.getId(), AccountManagerAPI.MAX_MONEY / 2);
+            deposit(secondAccount.getId(), AccountManagerAPI.MAX_MONEY / 2);
+
+            List<TransferUnderOverload> clients = Lists.newArrayList();
+            List<Thread> threads = Lists.newArrayList();
+            for (int i = 0; i < THREADS_TO_CREATE; i++) {
+                TransferUnderOverload client =
+                        new TransferUnderOverload(firstAccount.getId(), secondAccount.getId(), REQUESTS_PER_THREAD);
+                Thread thread = new Thread(client);
+                thread.start();
+                clients.add(client);
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            long[] latenciesNanos = new long[THREADS_TO_CREATE * REQUESTS_PER_THREAD];
+            int rejected = 0;
+            for (int i = 0; i < clients.size(); i++) {
+                System.arraycopy(clients.get(i).latenciesNanos, 0,
+                        latenciesNanos, i * REQUESTS_PER_THREAD, REQUESTS_PER_THREAD);
+                rejected += clients.get(i).rejected;
+            }
+            Arrays.sort(latenciesNanos);
+
+            System.out.println("Rejected " + rejected + " of " + latenciesNanos.length + " requests");
+            System.out.println("p50 latency " + latenciesNanos[latenciesNanos.length / 2] / 1e6 + " millis");
+            System.out.println("p99 latency " + latenciesNanos[latenciesNanos.length * 99 / 100] / 1e6 + " millis");
+        } finally {
+            System.clearProperty(RequestWorkerPool.PROPERTY_THREADS);
+            System.clearProperty(AdmissionController.PROPERTY_MIN_IN_FLIGHT);
+            System.clearProperty(AdmissionController.PROPERTY_TARGET_LATENCY_MILLIS);
+        }
+    }
+
     private Account openAccountForOwner(long ownerId) {
         MultivaluedMap<String, String> formData = new MultivaluedHashMap<>();
         formData.add(AccountManagerConstants.PARAM_OWNER_ID, Long.toString(ownerId));
@@ -247,6 +416,29 @@ public class AccountManagerTest {
         return response.readEntity(Account.class);
     }
 
+    private List<Account> openAccountsForOwner(long ownerId, int count) {
+        MultivaluedMap<String, String> formData = new MultivaluedHashMap<>();
+        formData.add(AccountManagerConstants.PARAM_OWNER_ID, Long.toString(ownerId));
+        formData.add(AccountManagerConstants.PARAM_COUNT, Integer.toString(count));
+        javax.ws.rs.core.Response response =
+                getRequest(PATH_OPEN_ACCOUNTS)
+                        .post(Entity.form(formData));
+        validateResponse(response);
+        return response.readEntity(new GenericType<List<Account>>() {});
+    }
+
+    private List<Account> openAccountsForOwners(long... ownerIds) {
+        MultivaluedMap<String, String> formData = new MultivaluedHashMap<>();
+        for (long ownerId : ownerIds) {
+            formData.add(AccountManagerConstants.PARAM_OWNER_ID, Long.toString(ownerId));
+        }
+        javax.ws.rs.core.Response response =
+                getRequest(PATH_OPEN_ACCOUNTS_FOR_OWNERS)
+                        .post(Entity.form(formData));
+        validateResponse(response);
+        return response.readEntity(new GenericType<List<Account>>() {});
+    }
+
     private Account getAccount(long accountId) {
         MultivaluedMap<String, String> formData = new MultivaluedHashMap<>();
         formData.add(AccountManagerConstants.PARAM_ACCOUNT_ID, Long.toString(accountId));
@@ -288,6 +480,38 @@ public class AccountManagerTest {
         validateResponse(response);
     }
 
+    private long scheduleTransfer(long sourceAccountId, long targetAccountId, double money,
+                                  Long executeAtMillis, long intervalMillis) {
+        MultivaluedMap<String, String> formData = new MultivaluedHashMap<>();
+        formData.add(AccountManagerConstants.PARAM_SOURCE_ACCOUNT_ID, Long.toString(sourceAccountId));
+        formData.add(AccountManagerConstants.PARAM_TARGET_ACCOUNT_ID, Long.toString(targetAccountId));
+        formData.add(AccountManagerConstants.PARAM_MONEY, Double.toString(money));
+        if (executeAtMillis != null) {
+            formData.add(AccountManagerConstants.PARAM_EXECUTE_AT, Long.toString(executeAtMillis));
+        }
+        formData.add(AccountManagerConstants.PARAM_INTERVAL_MILLIS, Long.toString(intervalMillis));
+        javax.ws.rs.core.Response response =
+                getRequest(PATH_SCHEDULE_TRANSFER)
+                        .post(Entity.form(formData));
+        validateResponse(response);
+        return response.readEntity(Long.class);
+    }
+
+    private void cancelScheduledTransfer(long scheduleId) {
+        MultivaluedMap<String, String> formData = new MultivaluedHashMap<>();
+        formData.add(AccountManagerConstants.PARAM_SCHEDULE_ID, Long.toString(scheduleId));
+        javax.ws.rs.core.Response response =
+                getRequest(PATH_CANCEL_SCHEDULED_TRANSFER)
+                        .post(Entity.form(formData));
+        validateResponse(response);
+    }
+
+    private int getReadinessStatus() {
+        Response response = target.path(READY).request(MediaType.TEXT_PLAIN_TYPE).get();
+        response.close();
+        return response.getStatus();
+    }
+
     private void validateResponse(Response response) {
         if (response.getStatus() == Response.Status.BAD_REQUEST.getStatusCode()) {
             throw new BadRequestException(response.readEntity(String.class));
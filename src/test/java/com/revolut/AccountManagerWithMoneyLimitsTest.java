@@ -1,7 +1,11 @@
 package com.revolut;
 
+import com.google.common.collect.Lists;
+import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -29,6 +33,154 @@ public class AccountManagerWithMoneyLimitsTest {
         readThread.join();
     }
 
+    @Test
+    public void openAccountsShouldReturnConsecutiveIdsForTheOwner() throws Exception {
+        accountManager = new AccountManagerWithMoneyLimits(0, 1000);
+        Account firstAccount = accountManager.openAccount(1);
+
+        List<Account> accounts = accountManager.openAccounts(2, 100);
+        assertEquals(100, accounts.size());
+        for (int i = 0; i < accounts.size(); i++) {
+            Account account = accounts.get(i);
+            assertEquals(firstAccount.getId() + 1 + i, account.getId());
+            assertEquals(2, account.getOwnerId());
+            assertEquals(account.getId(), accountManager.getAccount(account.getId()).getId());
+        }
+        assertEquals(firstAccount.getId() + 101, accountManager.openAccount(1).getId());
+    }
+
+    @Test
+    public void openAccountsForOwnersShouldKeepTheOrderOfOwners() throws Exception {
+        accountManager = new AccountManagerWithMoneyLimits(0, 1000);
+        List<Long> ownerIds = Arrays.asList(7L, 3L, 7L, 5L);
+
+        List<Account> accounts = accountManager.openAccounts(ownerIds);
+        assertEquals(ownerIds.size(), accounts.size());
+        for (int i = 0; i < accounts.size(); i++) {
+            assertEquals((long) ownerIds.get(i), accounts.get(i).getOwnerId());
+            assertEquals(accounts.get(0).getId() + i, accounts.get(i).getId());
+        }
+    }
+
+    @Test(expected = AccountManager.AccountOperationException.class)
+    public void openAccountsWithNonPositiveCountShouldFail() throws Exception {
+        accountManager = new AccountManagerWithMoneyLimits(0, 1000);
+        accountManager.openAccounts(1, 0);
+    }
+
+    @Test(expected = AccountManager.AccountOperationException.class)
+    public void openAccountsOverTheBulkLimitShouldFail() throws Exception {
+        accountManager = new AccountManagerWithMoneyLimits(0, 1000);
+        accountManager.openAccounts(1, AccountManagerWithMoneyLimits.MAX_BULK_ACCOUNTS + 1);
+    }
+
+    @Test(expected = AccountManager.AccountOperationException.class)
+    public void openAccountsForNoOwnersShouldFail() throws Exception {
+        accountManager = new AccountManagerWithMoneyLimits(0, 1000);
+        accountManager.openAccounts(Lists.<Long>newArrayList());
+    }
+
+    @Test
+    public void nonFiniteMoneyShouldBeRejected() throws Exception {
+        accountManager = new AccountManagerWithMoneyLimits(0, 1000);
+        Account source = accountManager.openAccount(1);
+        Account target = accountManager.openAccount(2);
+        double[] moneys = {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double money : moneys) {
+            try {
+                accountManager.deposit(source.getId(), money);
+                throw new AssertionError("Expected deposit of " + money + " to be rejected");
+            } catch (AccountManager.AccountOperationException e) {
+                /* Expected. */
+            }
+            try {
+                accountManager.transfer(source.getId(), target.getId(), money);
+                throw new AssertionError("Expected transfer of " + money + " to be rejected");
+            } catch (AccountManager.AccountOperationException e) {
+                /* Expected. */
+            }
+        }
+        assertEquals(0.0, accountManager.getAccount(source.getId()).getMoney(), 0.0);
+        assertEquals(0.0, accountManager.getAccount(target.getId()).getMoney(), 0.0);
+    }
+
+    @Test
+    public void concurrentlyOpenedAccountsShouldHaveUniqueDenseIds() throws Exception {
+        final int THREADS_TO_CREATE = 8;
+        final int ACCOUNTS_PER_THREAD = 10000;
+        accountManager = new AccountManagerWithMoneyLimits(0, 1000);
+
+        List<Thread> threads = Lists.newArrayList();
+        for (int i = 0; i < THREADS_TO_CREATE; i++) {
+            Thread thread = new Thread(new OpenAccounts(ACCOUNTS_PER_THREAD, i % 2 == 0 ? 1 : 100));
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        /* Every id in [0, total) must have been handed out exactly once. */
+        for (long accountId = 0; accountId < THREADS_TO_CREATE * ACCOUNTS_PER_THREAD; accountId++) {
+            assertEquals(accountId, accountManager.getAccount(accountId).getId());
+        }
+    }
+
+    @Test
+    @Ignore("Performance test")
+    public void testOnboardingAccountsPerSecond() throws Exception {
+        final int ACCOUNTS_TO_CREATE = 1000000;
+        final int THREADS_TO_CREATE = 8;
+
+        /* Every batch takes the manager lock once for its inserts, and so does every single account: batching only
+           reduces how often the lock is taken, the atomic id allocation doesn't avoid it. */
+        for (int batchSize : new int[]{1, 100, AccountManagerWithMoneyLimits.MAX_BULK_ACCOUNTS}) {
+            accountManager = new AccountManagerWithMoneyLimits(0, 1000);
+            final long timestamp = System.currentTimeMillis();
+            final List<Thread> threads = Lists.newArrayList();
+
+            for (int i = 0; i < THREADS_TO_CREATE; i++) {
+                Thread thread = new Thread(new OpenAccounts(ACCOUNTS_TO_CREATE, batchSize));
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long timeTakenMillis = Math.max(1, System.currentTimeMillis() - timestamp);
+
+            System.out.println("Batch size " + batchSize + ": accounts per second "
+                    + 1e3 * ACCOUNTS_TO_CREATE * THREADS_TO_CREATE / timeTakenMillis);
+        }
+    }
+
+    /** Opens <code>accountsToCreate</code> accounts in batches of <code>batchSize</code>. */
+    private class OpenAccounts implements Runnable {
+        private final int accountsToCreate;
+        private final int batchSize;
+
+        OpenAccounts(int accountsToCreate, int batchSize) {
+            this.accountsToCreate = accountsToCreate;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int opened = 0; opened < accountsToCreate; opened += batchSize) {
+                    int count = Math.min(batchSize, accountsToCreate - opened);
+                    if (count == 1) {
+                        accountManager.openAccount(1);
+                    } else {
+                        accountManager.openAccounts(1, count);
+                    }
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
     private class WriteAccount implements Runnable {
         @Override
         public void run() {
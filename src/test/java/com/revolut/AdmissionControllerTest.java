@@ -0,0 +1,240 @@
+package com.revolut;
+
+import com.revolut.AdmissionController.AdmissionException;
+import com.revolut.AdmissionController.Operation;
+import com.revolut.AdmissionController.Permit;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControllerTest {
+    @Test
+    public void whenInFlightLimitReachedShouldRejectWithServiceUnavailable() throws Exception {
+        AdmissionController admissionController = new AdmissionController(2, 1, 0, 0, 1);
+        Permit first = admissionController.acquire(Operation.DEPOSIT, 1);
+        Permit second = admissionController.acquire(Operation.DEPOSIT, 2);
+        try {
+            admissionController.acquire(Operation.DEPOSIT, 3);
+            throw new AssertionError("Expected the request to be rejected");
+        } catch (AdmissionException e) {
+            assertEquals(AdmissionController.STATUS_SERVICE_UNAVAILABLE, e.getStatus());
+        }
+
+        first.close();
+        admissionController.acquire(Operation.DEPOSIT, 3).close();
+        second.close();
+        assertEquals(0, admissionController.getInFlight(Operation.DEPOSIT));
+    }
+
+    @Test
+    public void whenOneOperationIsSaturatedOtherOperationsShouldBeAdmitted() throws Exception {
+        AdmissionController admissionController = new AdmissionController(1, 1, 0, 0, 1);
+        Permit permit = admissionController.acquire(Operation.TRANSFER, 1);
+        admissionController.acquire(Operation.GET_ACCOUNT, 1).close();
+        permit.close();
+    }
+
+    @Test
+    public void whenPermitIsClosedTwiceShouldReleaseOnlyOnce() throws Exception {
+        AdmissionController admissionController = new AdmissionController(2, 1, 0, 0, 1);
+        Permit held = admissionController.acquire(Operation.WITHDRAW, 1);
+        Permit permit = admissionController.acquire(Operation.WITHDRAW, 2);
+        permit.close();
+        permit.close();
+        assertEquals(1, admissionController.getInFlight(Operation.WITHDRAW));
+        held.close();
+    }
+
+    @Test
+    public void whenLatencyExceedsTargetLimitShouldShrinkButNotBelowMinimum() throws Exception {
+        AdmissionController admissionController = new AdmissionController(100, 10, 1, 0, 1);
+        for (int i = 0; i < 100; i++) {
+            Permit permit = admissionController.acquire(Operation.GET_ACCOUNT, 1);
+            Thread.sleep(2);
+            permit.close();
+        }
+        assertEquals(10, admissionController.getLimit(Operation.GET_ACCOUNT));
+    }
+
+    @Test
+    public void whenLatencyMeetsTargetSaturatedLimitShouldGrowBackUpToMaximum() {
+        AdmissionController.ConcurrencyLimit limit =
+                new AdmissionController.ConcurrencyLimit(1, 3, TimeUnit.SECONDS.toNanos(1));
+        limit.tryAcquire();
+        limit.tryAcquire();
+        limit.tryAcquire();
+        assertFalse(limit.tryAcquire());
+
+        limit.release(TimeUnit.SECONDS.toNanos(2));
+        /* Limit shrank from 3 to 2 while two requests are still in flight. */
+        assertFalse(limit.tryAcquire());
+
+        limit.release(0);
+        limit.release(0);
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        limit.release(0);
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+    }
+
+    @Test
+    public void whenSlowRequestsCompleteTogetherLimitShouldShrinkOnlyOnce() throws Exception {
+        final AdmissionController admissionController = new AdmissionController(100, 10, 200, 0, 1);
+        final CountDownLatch admitted = new CountDownLatch(50);
+        final CountDownLatch stallOver = new CountDownLatch(1);
+        Thread[] threads = new Thread[50];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try (Permit permit = admissionController.acquire(Operation.DEPOSIT, 1)) {
+                        admitted.countDown();
+                        stallOver.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        admitted.await();
+        /* A stall longer than the target latency, e.g. a GC pause, with 50 requests in flight. */
+        Thread.sleep(250);
+        stallOver.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, admissionController.getInFlight(Operation.DEPOSIT));
+        assertEquals(90, admissionController.getLimit(Operation.DEPOSIT));
+    }
+
+    @Test
+    public void limitShouldShrinkAtMostOncePerTargetLatency() {
+        long target = TimeUnit.MILLISECONDS.toNanos(100);
+        AdmissionController.ConcurrencyLimit limit = new AdmissionController.ConcurrencyLimit(1, 100, target);
+        for (int i = 0; i < 20; i++) {
+            limit.tryAcquire();
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            limit.release(2 * target, now + i);
+        }
+        /* 100 * 0.9 once, not 100 * 0.9^10. */
+        for (int i = 0; i < 10; i++) {
+            limit.release(2 * target, now + target + i);
+        }
+        /* Next window: 90 * 0.9. */
+        for (int i = 0; i < 81; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+        assertFalse(limit.tryAcquire());
+    }
+
+    @Test
+    public void timeWaitingForWorkerShouldCountAsLatency() throws Exception {
+        final AdmissionController admissionController = new AdmissionController(100, 10, 50, 0, 1);
+        RequestWorkerPool workerPool = new RequestWorkerPool(1, 1);
+        try {
+            final CountDownLatch released = new CountDownLatch(1);
+            workerPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        released.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            final CountDownLatch completed = new CountDownLatch(1);
+            /* Admitted and completed at once, but only after waiting for the busy worker longer than the target. */
+            workerPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        admissionController.acquire(Operation.DEPOSIT, 1).close();
+                    } catch (AdmissionException e) {
+                        throw new RuntimeException(e);
+                    }
+                    completed.countDown();
+                }
+            });
+            try {
+                workerPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                });
+                throw new AssertionError("Expected the queue to be full");
+            } catch (RejectedExecutionException e) {
+                /* Expected. */
+            }
+            Thread.sleep(100);
+            released.countDown();
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+            assertEquals(90, admissionController.getLimit(Operation.DEPOSIT));
+        } finally {
+            workerPool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void whenAccountBurstExhaustedShouldRejectWithTooManyRequests() throws Exception {
+        AdmissionController admissionController = new AdmissionController(100, 1, 0, 1, 3);
+        for (int i = 0; i < 3; i++) {
+            admissionController.acquire(Operation.DEPOSIT, 42).close();
+        }
+        try {
+            admissionController.acquire(Operation.DEPOSIT, 42);
+            throw new AssertionError("Expected the request to be rejected");
+        } catch (AdmissionException e) {
+            assertEquals(AdmissionController.STATUS_TOO_MANY_REQUESTS, e.getStatus());
+        }
+        assertEquals(0, admissionController.getInFlight(Operation.DEPOSIT));
+        /* Other accounts, including ones whose ids hash alike, and requests without an account are not affected. */
+        admissionController.acquire(Operation.DEPOSIT, 43).close();
+        admissionController.acquire(Operation.DEPOSIT, 42 + (1L << 32)).close();
+        admissionController.acquire(Operation.DEPOSIT, 42 + 4096).close();
+        admissionController.acquire(Operation.OPEN_ACCOUNT).close();
+    }
+
+    @Test
+    public void whenInFlightLimitReachedShouldNotConsumeAccountTokens() throws Exception {
+        AdmissionController admissionController = new AdmissionController(1, 1, 0, 1, 1);
+        Permit permit = admissionController.acquire(Operation.DEPOSIT, 1);
+        try {
+            admissionController.acquire(Operation.DEPOSIT, 2);
+            throw new AssertionError("Expected the request to be rejected");
+        } catch (AdmissionException e) {
+            assertEquals(AdmissionController.STATUS_SERVICE_UNAVAILABLE, e.getStatus());
+        }
+        permit.close();
+        admissionController.acquire(Operation.DEPOSIT, 2).close();
+    }
+
+    @Test
+    public void trackedAccountsShouldStayBounded() throws Exception {
+        AdmissionController admissionController = new AdmissionController(100, 1, 0, 1, 1);
+        for (long accountId = 0; accountId < 2 * AdmissionController.MAX_TRACKED_ACCOUNTS; accountId++) {
+            admissionController.acquire(Operation.GET_ACCOUNT, accountId).close();
+        }
+        assertTrue(admissionController.getTrackedAccounts() <= AdmissionController.MAX_TRACKED_ACCOUNTS);
+    }
+
+    @Test
+    public void tokenBucketShouldRefillOverTime() {
+        AdmissionController.TokenBucket bucket = new AdmissionController.TokenBucket(10, 1);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryConsume(now));
+        assertFalse(bucket.tryConsume(now));
+        assertTrue(bucket.tryConsume(now + TimeUnit.MILLISECONDS.toNanos(200)));
+    }
+}
@@ -0,0 +1,109 @@
+package com.revolut;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HierarchicalTimingWheelTest {
+    private static final long START_TICK = 1000;
+
+    @Test
+    public void timersShouldExpireExactlyAtTheirTickAcrossAllLevels() {
+        HierarchicalTimingWheel<TestTimer> wheel = new HierarchicalTimingWheel<>(START_TICK);
+        /* One timer per level, plus one beyond the range of the top level. */
+        long[] delays = {1, 63, 64, 4095, 4096, 262143, 262144, 1L << 24, (1L << 30) + 5};
+        for (long delay : delays) {
+            wheel.add(new TestTimer(START_TICK + delay));
+        }
+        assertEquals(delays.length, wheel.size());
+
+        for (long delay : delays) {
+            wheel.advanceTo(START_TICK + delay - 1);
+            assertNull(wheel.pollExpired());
+            wheel.advanceTo(START_TICK + delay);
+            TestTimer timer = wheel.pollExpired();
+            assertEquals(START_TICK + delay, timer.expirationTick);
+            assertNull(wheel.pollExpired());
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void randomTimersShouldExpireInOrderAndNeverEarly() {
+        HierarchicalTimingWheel<TestTimer> wheel = new HierarchicalTimingWheel<>(START_TICK);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            wheel.add(new TestTimer(START_TICK + 1 + random.nextInt(1 << 20)));
+        }
+
+        long lastExpired = START_TICK;
+        int expired = 0;
+        for (long tick = START_TICK; tick <= START_TICK + (1 << 20); tick += 1 + random.nextInt(5000)) {
+            wheel.advanceTo(tick);
+            TestTimer timer;
+            while ((timer = wheel.pollExpired()) != null) {
+                assertTrue(timer.expirationTick <= tick);
+                assertTrue(timer.expirationTick >= lastExpired);
+                lastExpired = timer.expirationTick;
+                expired++;
+            }
+        }
+        wheel.advanceTo(START_TICK + (1 << 20));
+        while (wheel.pollExpired() != null) {
+            expired++;
+        }
+        assertEquals(10000, expired);
+    }
+
+    @Test
+    public void removedTimersShouldNotExpire() {
+        HierarchicalTimingWheel<TestTimer> wheel = new HierarchicalTimingWheel<>(START_TICK);
+        List<TestTimer> timers = Lists.newArrayList();
+        for (int i = 1; i <= 100; i++) {
+            TestTimer timer = new TestTimer(START_TICK + i * 100);
+            wheel.add(timer);
+            timers.add(timer);
+        }
+        for (int i = 0; i < timers.size(); i += 2) {
+            assertTrue(wheel.remove(timers.get(i)));
+            assertFalse(wheel.remove(timers.get(i)));
+        }
+        assertEquals(50, wheel.size());
+
+        wheel.advanceTo(START_TICK + 100 * 100);
+        for (int i = 1; i < timers.size(); i += 2) {
+            assertEquals(timers.get(i).expirationTick, wheel.pollExpired().expirationTick);
+        }
+        assertNull(wheel.pollExpired());
+    }
+
+    @Test
+    public void expiredTimersCanBeRemovedAndReAdded() {
+        HierarchicalTimingWheel<TestTimer> wheel = new HierarchicalTimingWheel<>(START_TICK);
+        TestTimer past = new TestTimer(START_TICK - 10);
+        wheel.add(past);
+        assertTrue(past.isScheduled());
+
+        assertTrue(wheel.remove(past));
+        assertNull(wheel.pollExpired());
+
+        past.expirationTick = START_TICK + 5;
+        wheel.add(past);
+        wheel.advanceTo(START_TICK + 5);
+        assertTrue(past == wheel.pollExpired());
+        assertFalse(past.isScheduled());
+    }
+
+    private static class TestTimer extends HierarchicalTimingWheel.Timer {
+        TestTimer(long expirationTick) {
+            this.expirationTick = expirationTick;
+        }
+    }
+}
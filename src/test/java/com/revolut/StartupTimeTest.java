@@ -0,0 +1,91 @@
+package com.revolut;
+
+import com.google.common.collect.Lists;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.revolut.AccountManagerConstants.ACCOUNT_MANAGER;
+import static com.revolut.AccountManagerConstants.PARAM_OWNER_ID;
+import static com.revolut.AccountManagerConstants.PATH_OPEN_ACCOUNT;
+
+/**
+ * Measures the time from launching a fresh JVM running {@link Main} until its first successful request.
+ * <p/>
+ * Extra JVM options for the server can be passed in the <code>startup.jvmArgs</code> system property, e.g.
+ * <code>-Dstartup.jvmArgs=-XX:SharedArchiveFile=account-manager.jsa</code> to measure with a class-data-sharing
+ * archive.
+ */
+public class StartupTimeTest {
+    private static final long POLL_INTERVAL_MILLIS = 5;
+    private static final long TIMEOUT_MILLIS = 60000;
+
+    @Test
+    @Ignore("Performance test")
+    public void testTimeToFirstSuccessfulRequest() throws Exception {
+        final int ROUNDS = 5;
+        for (int round = 0; round < ROUNDS; round++) {
+            /* Warm-up is disabled to measure time to the first request rather than to readiness. */
+            long scanningMillis = timeToFirstSuccessfulRequest(
+                    "-D" + Main.PROPERTY_CLASSPATH_SCANNING + "=true", "-D" + Main.PROPERTY_WARMUP_ITERATIONS + "=0");
+            long explicitMillis = timeToFirstSuccessfulRequest(
+                    "-D" + Main.PROPERTY_WARMUP_ITERATIONS + "=0");
+            System.out.println("Round " + round + ": time to first successful request with classpath scanning "
+                    + scanningMillis + " millis, with explicit registration " + explicitMillis + " millis");
+        }
+    }
+
+    private long timeToFirstSuccessfulRequest(String... properties) throws Exception {
+        List<String> command = Lists.newArrayList();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        String jvmArgs = System.getProperty("startup.jvmArgs", "").trim();
+        if (!jvmArgs.isEmpty()) {
+            command.addAll(Arrays.asList(jvmArgs.split("\\s+")));
+        }
+        command.addAll(Arrays.asList(properties));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+
+        final long timestamp = System.currentTimeMillis();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+        try {
+            while (System.currentTimeMillis() - timestamp < TIMEOUT_MILLIS) {
+                if (tryOpenAccount()) {
+                    return System.currentTimeMillis() - timestamp;
+                }
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+            throw new IllegalStateException("Server did not start in " + TIMEOUT_MILLIS + " millis");
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    private boolean tryOpenAccount() {
+        try {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL(Main.BASE_URI + ACCOUNT_MANAGER + PATH_OPEN_ACCOUNT).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write((PARAM_OWNER_ID + "=1").getBytes(StandardCharsets.US_ASCII));
+            }
+            return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            /* Not listening yet. */
+            return false;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.revolut;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransferSchedulerTest {
+    private static final double EPSILON = 1e-7;
+    private static final long TICK_MILLIS = 100;
+    /** Far enough in the future that the background thread never runs anything during a test. */
+    private static final long FUTURE = System.currentTimeMillis() + 3600000;
+
+    private AccountManager accountManager;
+    private Account source;
+    private Account target;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws Exception {
+        accountManager = new AccountManagerWithMoneyLimits(0, 1000);
+        source = accountManager.openAccount(1);
+        target = accountManager.openAccount(2);
+        accountManager.deposit(source.getId(), 100);
+        journalFile = File.createTempFile("schedules", ".journal");
+        journalFile.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journalFile.delete();
+    }
+
+    @Test
+    public void oneOffTransferShouldRunOnceWhenDue() throws Exception {
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, null)) {
+            scheduler.schedule(source.getId(), target.getId(), 10, FUTURE, 0);
+
+            assertEquals(0, scheduler.runDueTransfers(FUTURE - 1));
+            assertEquals(1, scheduler.runDueTransfers(FUTURE + TICK_MILLIS));
+            assertEquals(0, scheduler.runDueTransfers(FUTURE + 2 * TICK_MILLIS));
+
+            assertEquals(90, accountManager.getAccount(source.getId()).getMoney(), EPSILON);
+            assertEquals(10, accountManager.getAccount(target.getId()).getMoney(), EPSILON);
+            assertEquals(0, scheduler.size());
+        }
+    }
+
+    @Test
+    public void recurringTransferShouldRunEveryIntervalAndSkipMissedOccurrences() throws Exception {
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, null)) {
+            long interval = 10 * TICK_MILLIS;
+            scheduler.schedule(source.getId(), target.getId(), 10, FUTURE, interval);
+
+            assertEquals(1, scheduler.runDueTransfers(FUTURE + TICK_MILLIS));
+            assertEquals(0, scheduler.runDueTransfers(FUTURE + interval - TICK_MILLIS));
+            assertEquals(1, scheduler.runDueTransfers(FUTURE + interval + TICK_MILLIS));
+            /* Five intervals missed, only one catch-up transfer. */
+            assertEquals(1, scheduler.runDueTransfers(FUTURE + 7 * interval));
+            assertEquals(0, scheduler.runDueTransfers(FUTURE + 7 * interval + TICK_MILLIS));
+
+            assertEquals(70, accountManager.getAccount(source.getId()).getMoney(), EPSILON);
+            assertEquals(1, scheduler.size());
+        }
+    }
+
+    @Test
+    public void dueTransfersShouldBeExecutedInRatePacedBatches() throws Exception {
+        /* 50 transfers per second with 100ms ticks is 5 transfers per batch. */
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 50, null)) {
+            for (int i = 0; i < 12; i++) {
+                scheduler.schedule(source.getId(), target.getId(), 1, FUTURE, 0);
+            }
+            assertEquals(5, scheduler.runDueTransfers(FUTURE + TICK_MILLIS));
+            assertEquals(5, scheduler.runDueTransfers(FUTURE + 2 * TICK_MILLIS));
+            assertEquals(2, scheduler.runDueTransfers(FUTURE + 3 * TICK_MILLIS));
+            assertEquals(12, accountManager.getAccount(target.getId()).getMoney(), EPSILON);
+        }
+    }
+
+    @Test
+    public void cancelledTransferShouldNotRun() throws Exception {
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, null)) {
+            long scheduleId = scheduler.schedule(source.getId(), target.getId(), 10, FUTURE, TICK_MILLIS);
+            scheduler.cancel(scheduleId);
+
+            assertEquals(0, scheduler.runDueTransfers(FUTURE + TICK_MILLIS));
+            assertEquals(100, accountManager.getAccount(source.getId()).getMoney(), EPSILON);
+        }
+    }
+
+    @Test(expected = AccountManager.AccountOperationException.class)
+    public void cancellingUnknownScheduleShouldFail() throws Exception {
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, null)) {
+            scheduler.cancel(42);
+        }
+    }
+
+    @Test(expected = AccountManager.AccountOperationException.class)
+    public void schedulingForNonExistentAccountShouldFail() throws Exception {
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, null)) {
+            scheduler.schedule(source.getId(), 42, 10, FUTURE, 0);
+        }
+    }
+
+    @Test(expected = AccountManager.AccountOperationException.class)
+    public void schedulingWithIntervalShorterThanTickShouldFail() throws Exception {
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, null)) {
+            scheduler.schedule(source.getId(), target.getId(), 10, FUTURE, TICK_MILLIS - 1);
+        }
+    }
+
+    @Test
+    public void schedulingWithInvalidExecutionTimeOrIntervalShouldFail() throws Exception {
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, null)) {
+            long[][] invalid = {
+                    {0, 0},
+                    {-1, 0},
+                    {TransferScheduler.MAX_EXECUTE_AT_MILLIS + 1, 0},
+                    {FUTURE, TransferScheduler.MAX_INTERVAL_MILLIS + 1},
+                    {FUTURE, Long.MAX_VALUE},
+                    {FUTURE, -TICK_MILLIS}};
+            for (long[] executeAtAndInterval : invalid) {
+                try {
+                    scheduler.schedule(source.getId(), target.getId(), 10, executeAtAndInterval[0],
+                            executeAtAndInterval[1]);
+                    throw new AssertionError("Expected executeAt " + executeAtAndInterval[0] + " and interval "
+                            + executeAtAndInterval[1] + " to be rejected");
+                } catch (AccountManager.AccountOperationException e) {
+                    /* Expected. */
+                }
+            }
+            assertEquals(0, scheduler.size());
+        }
+    }
+
+    @Test
+    public void recurringTransferWithLongestIntervalShouldNotOverflow() throws Exception {
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, null)) {
+            scheduler.schedule(source.getId(), target.getId(), 10, FUTURE, TransferScheduler.MAX_INTERVAL_MILLIS);
+            assertEquals(1, scheduler.runDueTransfers(FUTURE + TICK_MILLIS));
+            assertEquals(0, scheduler.runDueTransfers(FUTURE + 2 * TICK_MILLIS));
+            assertEquals(90, accountManager.getAccount(source.getId()).getMoney(), EPSILON);
+        }
+    }
+
+    @Test
+    public void failedTransferShouldBeSkipped() throws Exception {
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, null)) {
+            scheduler.schedule(source.getId(), target.getId(), 500, FUTURE, 0);
+            assertEquals(1, scheduler.runDueTransfers(FUTURE + TICK_MILLIS));
+            assertEquals(100, accountManager.getAccount(source.getId()).getMoney(), EPSILON);
+            assertEquals(0, scheduler.size());
+        }
+    }
+
+    @Test
+    public void schedulesShouldSurviveRestart() throws Exception {
+        long recurringId;
+        long cancelledId;
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, journalFile)) {
+            recurringId = scheduler.schedule(source.getId(), target.getId(), 1, FUTURE, 1000 * TICK_MILLIS);
+            cancelledId = scheduler.schedule(source.getId(), target.getId(), 2, FUTURE, 0);
+            scheduler.schedule(source.getId(), target.getId(), 3, FUTURE - 1000 * TICK_MILLIS, 0);
+            scheduler.cancel(cancelledId);
+            /* Runs the first occurrence of the recurring transfer and the one-off. */
+            assertEquals(2, scheduler.runDueTransfers(FUTURE + TICK_MILLIS));
+        }
+
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, journalFile)) {
+            assertEquals(1, scheduler.size());
+            /* Nothing is repeated after the restart, the recurring transfer continues at its next occurrence. */
+            assertEquals(0, scheduler.runDueTransfers(FUTURE + 2 * TICK_MILLIS));
+            assertEquals(1, scheduler.runDueTransfers(FUTURE + 1001 * TICK_MILLIS));
+            scheduler.cancel(recurringId);
+            long newId = scheduler.schedule(source.getId(), target.getId(), 1, FUTURE, 0);
+            assertEquals(recurringId + 3, newId);
+        }
+        assertEquals(95, accountManager.getAccount(source.getId()).getMoney(), EPSILON);
+    }
+
+    @Test
+    public void schedulesShouldBeDroppedOnRestartWithNewAccounts() throws Exception {
+        long scheduleId;
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, journalFile)) {
+            scheduleId = scheduler.schedule(source.getId(), target.getId(), 10, FUTURE, TICK_MILLIS);
+        }
+
+        /* Accounts are in memory only: a new manager hands out the same ids to unrelated accounts. */
+        AccountManager newAccountManager = new AccountManagerWithMoneyLimits(0, 1000);
+        Account newSource = newAccountManager.openAccount(3);
+        Account newTarget = newAccountManager.openAccount(4);
+        newAccountManager.deposit(newSource.getId(), 100);
+        assertEquals(source.getId(), newSource.getId());
+
+        try (TransferScheduler scheduler =
+                     new TransferScheduler(newAccountManager, TICK_MILLIS, 1000, journalFile)) {
+            assertEquals(0, scheduler.size());
+            assertEquals(0, scheduler.runDueTransfers(FUTURE + TICK_MILLIS));
+            /* Ids of the dropped schedules are not handed out again. */
+            assertEquals(scheduleId + 1,
+                    scheduler.schedule(newSource.getId(), newTarget.getId(), 1, FUTURE, 0));
+        }
+        assertEquals(100, newAccountManager.getAccount(newSource.getId()).getMoney(), EPSILON);
+        assertEquals(0, newAccountManager.getAccount(newTarget.getId()).getMoney(), EPSILON);
+
+        /* Schedules made against the new accounts are kept. */
+        try (TransferScheduler scheduler =
+                     new TransferScheduler(newAccountManager, TICK_MILLIS, 1000, journalFile)) {
+            assertEquals(1, scheduler.size());
+        }
+    }
+
+    @Test
+    public void whenJournalWriteFailsDueTransfersShouldStayPending() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, journalFile);
+        scheduler.schedule(source.getId(), target.getId(), 10, FUTURE, 0);
+        scheduler.schedule(source.getId(), target.getId(), 10, FUTURE, TICK_MILLIS);
+        /* A closed journal fails every write, like a full disk. */
+        scheduler.close();
+        for (int i = 0; i < 2; i++) {
+            try {
+                scheduler.runDueTransfers(FUTURE + TICK_MILLIS);
+                throw new AssertionError("Expected the journal write to fail");
+            } catch (IllegalStateException e) {
+                /* Expected. */
+            }
+            assertEquals(2, scheduler.size());
+            assertEquals(100, accountManager.getAccount(source.getId()).getMoney(), EPSILON);
+        }
+    }
+
+    @Test
+    public void journalShouldBeCompactedWhileRecurringTransfersRun() throws Exception {
+        final int SCHEDULES = 100;
+        final int RUNS = 50;
+        /* Record type, four longs and a double. */
+        final int RECORD_BYTES = 1 + 5 * 8;
+        /* Aligned to the tick, so that every occurrence is due exactly at the next run. */
+        long start = FUTURE - FUTURE % TICK_MILLIS;
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, journalFile)) {
+            for (int i = 0; i < SCHEDULES; i++) {
+                scheduler.schedule(source.getId(), target.getId(), 0.01, start, TICK_MILLIS);
+            }
+            for (int run = 0; run < RUNS; run++) {
+                assertEquals(SCHEDULES, scheduler.runDueTransfers(start + run * TICK_MILLIS));
+            }
+        }
+        /* Without compaction, every run would have appended a record per schedule. */
+        assertTrue(journalFile.length() < (long) RECORD_BYTES * SCHEDULES * RUNS / 2);
+
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, journalFile)) {
+            assertEquals(SCHEDULES, scheduler.size());
+            assertEquals(SCHEDULES, scheduler.schedule(source.getId(), target.getId(), 1, FUTURE, 0));
+        }
+    }
+
+    @Test
+    public void recordsAppendedDuringCompactionShouldBeCarriedOver() throws Exception {
+        /* Aligned to the tick, so that every transfer is due exactly at its time. */
+        long start = FUTURE - FUTURE % TICK_MILLIS;
+        ScheduleJournal journal = new ScheduleJournal(journalFile);
+        journal.recover(accountManager.getEpoch());
+        ScheduledTransfer kept = new ScheduledTransfer(0, source.getId(), target.getId(), 1, start, 0);
+        ScheduledTransfer moved = new ScheduledTransfer(1, source.getId(), target.getId(), 1, start, TICK_MILLIS);
+        journal.appendSchedule(kept);
+        journal.appendSchedule(moved);
+        journal.syncUpTo(journal.flush());
+
+        long tailOffset = journal.startCompaction();
+        /* Changes made while the snapshot is written out. */
+        ScheduledTransfer added = new ScheduledTransfer(2, source.getId(), target.getId(), 1, start, 0);
+        journal.appendSchedule(added);
+        journal.appendSchedule(moved, start + TICK_MILLIS);
+        journal.appendRemove(kept.getId());
+        journal.flush();
+        journal.finishCompaction(journal.writeCompacted(Arrays.asList(kept, moved), 2), tailOffset);
+        journal.close();
+
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, journalFile)) {
+            assertEquals(2, scheduler.size());
+            assertEquals(0, scheduler.runDueTransfers(start - 1));
+            /* The one-off that was added, then the recurring one at its new time. */
+            assertEquals(1, scheduler.runDueTransfers(start));
+            assertEquals(1, scheduler.runDueTransfers(start + TICK_MILLIS));
+            assertEquals(3, scheduler.schedule(source.getId(), target.getId(), 1, start, 0));
+        }
+    }
+
+    @Test
+    public void concurrentlyScheduledTransfersShouldAllBePersisted() throws Exception {
+        final int THREADS = 8;
+        final int SCHEDULES_PER_THREAD = 100;
+        final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+        try (final TransferScheduler scheduler =
+                     new TransferScheduler(accountManager, TICK_MILLIS, 1000, journalFile)) {
+            Thread[] threads = new Thread[THREADS];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < SCHEDULES_PER_THREAD; j++) {
+                                ids.add(scheduler.schedule(source.getId(), target.getId(), 1, FUTURE, 0));
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        assertEquals(THREADS * SCHEDULES_PER_THREAD, ids.size());
+
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, journalFile)) {
+            assertEquals(THREADS * SCHEDULES_PER_THREAD, scheduler.size());
+        }
+    }
+
+    @Test
+    public void closeShouldStopTheBackgroundThreadAndReleaseTheJournal() throws Exception {
+        Set<Thread> threadsBefore = Thread.getAllStackTraces().keySet();
+        TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, journalFile);
+        scheduler.start();
+        scheduler.schedule(source.getId(), target.getId(), 10, FUTURE, 0);
+        scheduler.close();
+        scheduler.close();
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!threadsBefore.contains(thread) && thread.getName().equals("transfer-scheduler")) {
+                thread.join(1000);
+                assertFalse(thread.isAlive());
+            }
+        }
+        /* A new scheduler takes the journal over. */
+        try (TransferScheduler next = new TransferScheduler(accountManager, TICK_MILLIS, 1000, journalFile)) {
+            assertEquals(1, next.size());
+        }
+    }
+
+    @Test
+    public void failingTicksShouldBeReportedUntilATickSucceeds() throws Exception {
+        final boolean[] failing = {true};
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 1000, null) {
+            @Override
+            int runDueTransfers(long nowMillis) {
+                synchronized (failing) {
+                    if (failing[0]) {
+                        throw new IllegalStateException("Unable to persist executed transfers");
+                    }
+                }
+                return super.runDueTransfers(nowMillis);
+            }
+        }) {
+            scheduler.start();
+            Thread.sleep(5 * TICK_MILLIS);
+            assertTrue(scheduler.getTickFailure() instanceof IllegalStateException);
+
+            synchronized (failing) {
+                failing[0] = false;
+            }
+            Thread.sleep(5 * TICK_MILLIS);
+            assertEquals(null, scheduler.getTickFailure());
+        }
+    }
+
+    @Test
+    @Ignore("Performance test")
+    public void testMillionsOfPendingSchedules() throws Exception {
+        final int SCHEDULES = 5000000;
+        Runtime runtime = Runtime.getRuntime();
+        try (TransferScheduler scheduler = new TransferScheduler(accountManager, TICK_MILLIS, 100000, null)) {
+            System.gc();
+            long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+            long timestamp = System.nanoTime();
+            for (int i = 0; i < SCHEDULES; i++) {
+                /* Spread over the day after FUTURE. */
+                scheduler.schedule(source.getId(), target.getId(), 1, FUTURE + (i * 17L) % 86400000, 0);
+            }
+            long scheduleNanos = System.nanoTime() - timestamp;
+            System.gc();
+            long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+
+            timestamp = System.nanoTime();
+            for (long id = 0; id < SCHEDULES; id += 2) {
+                scheduler.cancel(id);
+            }
+            long cancelNanos = System.nanoTime() - timestamp;
+
+            System.out.println("Scheduled " + SCHEDULES + " transfers at " + scheduleNanos / SCHEDULES + " ns/op, "
+                    + (usedAfter - usedBefore) / SCHEDULES + " bytes per schedule");
+            System.out.println("Cancelled " + SCHEDULES / 2 + " transfers at " + cancelNanos / (SCHEDULES / 2)
+                    + " ns/op");
+        }
+    }
+}